@@ -0,0 +1,431 @@
+package org.bsdevelopment.file;
+
+import com.eclipsesource.json.*;
+import org.bsdevelopment.nbt.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts between minimal-json values and tags directly, without going through SNBT text.
+ * <p>
+ * {@link #read(Reader)} and {@link #write(StorageBase, Writer)} stream the JSON text, so only the
+ * tag tree is kept in memory (no {@link JsonObject} tree and no intermediate string).
+ * <ul>
+ *     <li>JSON numbers are converted as set by {@link #setNumberType(NumberType)}.</li>
+ *     <li>JSON booleans are stored with {@link StorageTagCompound#setBoolean(String, boolean)}, and as bytes inside arrays
+ *     (which are written back as numbers).</li>
+ *     <li>JSON nulls are skipped, as tags can not be null.</li>
+ *     <li>JSON arrays become lists, numbers inside an array are widened to the largest type found in it.
+ *     Arrays mixing other types can not be stored and throw an {@link IllegalArgumentException}.</li>
+ * </ul>
+ */
+public class JsonNBTConverter {
+    public enum NumberType {
+        /**
+         * Whole numbers use the smallest type they fit in (byte, short, int or long), decimals become doubles.
+         */
+        SMALLEST,
+        /**
+         * Whole numbers become ints, or longs if they don't fit, decimals become doubles.
+         */
+        INT_OR_LONG,
+        /**
+         * Every number becomes a double.
+         */
+        DOUBLE
+    }
+
+    private NumberType numberType = NumberType.INT_OR_LONG;
+    private boolean packArrays = false;
+    private boolean prettyPrint = false;
+
+    public JsonNBTConverter setNumberType(NumberType numberType) {
+        this.numberType = numberType;
+        return this;
+    }
+
+    /**
+     * Stores arrays of whole numbers as int/long arrays rather than lists.
+     */
+    public JsonNBTConverter setPackArrays(boolean packArrays) {
+        this.packArrays = packArrays;
+        return this;
+    }
+
+    /**
+     * Indents the text written by {@link #write(StorageBase, Writer)}.
+     */
+    public JsonNBTConverter setPrettyPrint(boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+        return this;
+    }
+
+    public StorageTagCompound toCompound(JsonObject object) {
+        StorageTagCompound compound = new StorageTagCompound();
+        for (JsonObject.Member member : object) {
+            JsonValue value = member.getValue();
+            if (value.isBoolean()) {
+                compound.setBoolean(member.getName(), value.isTrue());
+            } else if (!value.isNull()) {
+                compound.setTag(member.getName(), toTag(value));
+            }
+        }
+        return compound;
+    }
+
+    /**
+     * Converts the JSON value to a tag.
+     *
+     * @return The tag, or null for a JSON null.
+     */
+    public StorageBase toTag(JsonValue value) {
+        if (value.isObject()) return toCompound(value.asObject());
+        if (value.isString()) return new StorageTagString(value.asString());
+        if (value.isNumber()) return toNumber(value.toString());
+        if (value.isBoolean()) return new StorageTagByte((byte) (value.isTrue() ? 1 : 0));
+        if (value.isArray()) {
+            List<StorageBase> values = new ArrayList<>(value.asArray().size());
+            for (JsonValue element : value.asArray()) {
+                StorageBase tag = toTag(element);
+                if (tag != null) values.add(tag);
+            }
+            return toList(values);
+        }
+        return null;
+    }
+
+    public JsonObject toJson(StorageTagCompound compound) {
+        JsonObject object = new JsonObject();
+        for (String key : compound.getKeySet()) {
+            object.add(key, compound.isBoolean(key) ? Json.value(compound.getBoolean(key)) : toJsonValue(compound.getTag(key)));
+        }
+        return object;
+    }
+
+    /**
+     * Converts the tag to a JSON value. Numbers that can't be stored in JSON (NaN and infinity) become null.
+     */
+    public JsonValue toJsonValue(StorageBase tag) {
+        switch (tag.getId()) {
+            case 1:
+                return Json.value(((StorageTagByte) tag).getByte());
+            case 2:
+                return Json.value(((StorageTagShort) tag).getShort());
+            case 3:
+                return Json.value(((StorageTagInt) tag).getInt());
+            case 4:
+                return Json.value(((StorageTagLong) tag).getLong());
+            case 5: {
+                float value = ((StorageTagFloat) tag).getFloat();
+                return Float.isFinite(value) ? Json.value(value) : Json.NULL;
+            }
+            case 6: {
+                double value = ((StorageTagDouble) tag).getDouble();
+                return Double.isFinite(value) ? Json.value(value) : Json.NULL;
+            }
+            case 7: {
+                JsonArray array = new JsonArray();
+                for (byte value : ((StorageTagByteArray) tag).getByteArray()) array.add(value);
+                return array;
+            }
+            case 8:
+                return Json.value(((StorageTagString) tag).getString());
+            case 9: {
+                JsonArray array = new JsonArray();
+                StorageTagList list = (StorageTagList) tag;
+                for (int i = 0; i < list.tagCount(); i++) array.add(toJsonValue(list.get(i)));
+                return array;
+            }
+            case 10:
+                return toJson((StorageTagCompound) tag);
+            case 11: {
+                JsonArray array = new JsonArray();
+                for (int value : ((StorageTagIntArray) tag).getIntArray()) array.add(value);
+                return array;
+            }
+            case 12: {
+                JsonArray array = new JsonArray();
+                for (long value : ((StorageTagLongArray) tag).getList()) array.add(value);
+                return array;
+            }
+            default:
+                return Json.NULL;
+        }
+    }
+
+    /**
+     * Reads a JSON object from the reader straight into a compound.
+     *
+     * @throws ParseException If the text is not valid JSON.
+     * @throws IllegalArgumentException If the root is not an object, or an array can't be stored as a list.
+     */
+    public StorageTagCompound read(Reader reader) throws IOException {
+        TagHandler handler = new TagHandler();
+        new JsonParser(handler).parse(reader);
+        if (!(handler.value instanceof StorageTagCompound)) throw new IllegalArgumentException("The root JSON value has to be an object");
+        return (StorageTagCompound) handler.value;
+    }
+
+    /**
+     * Writes the tag as JSON text to the writer, without creating a {@link JsonValue} tree.
+     * Whole decimals keep their fraction (e.g. {@code 2.0}), so they are read back as decimals,
+     * unlike {@link #toJsonValue(StorageBase)} where minimal-json writes them as {@code 2}.
+     */
+    public void write(StorageBase tag, Writer writer) throws IOException {
+        writeValue(tag, writer, 0);
+    }
+
+    private void writeValue(StorageBase tag, Writer writer, int depth) throws IOException {
+        switch (tag.getId()) {
+            case 1 -> writer.write(Byte.toString(((StorageTagByte) tag).getByte()));
+            case 2 -> writer.write(Short.toString(((StorageTagShort) tag).getShort()));
+            case 3 -> writer.write(Integer.toString(((StorageTagInt) tag).getInt()));
+            case 4 -> writer.write(Long.toString(((StorageTagLong) tag).getLong()));
+            case 5 -> {
+                float value = ((StorageTagFloat) tag).getFloat();
+                writer.write(Float.isFinite(value) ? Float.toString(value) : "null");
+            }
+            case 6 -> {
+                double value = ((StorageTagDouble) tag).getDouble();
+                writer.write(Double.isFinite(value) ? Double.toString(value) : "null");
+            }
+            case 7 -> {
+                byte[] values = ((StorageTagByteArray) tag).getByteArray();
+                writer.write('[');
+                for (int i = 0; i < values.length; i++) {
+                    if (i != 0) writer.write(',');
+                    writer.write(Byte.toString(values[i]));
+                }
+                writer.write(']');
+            }
+            case 8 -> writeString(((StorageTagString) tag).getString(), writer);
+            case 9 -> {
+                StorageTagList list = (StorageTagList) tag;
+                writer.write('[');
+                for (int i = 0; i < list.tagCount(); i++) {
+                    if (i != 0) writer.write(',');
+                    newLine(writer, depth + 1);
+                    writeValue(list.get(i), writer, depth + 1);
+                }
+                if (list.tagCount() != 0) newLine(writer, depth);
+                writer.write(']');
+            }
+            case 10 -> {
+                StorageTagCompound compound = (StorageTagCompound) tag;
+                writer.write('{');
+                boolean first = true;
+                for (String key : compound.getKeySet()) {
+                    if (!first) writer.write(',');
+                    first = false;
+                    newLine(writer, depth + 1);
+                    writeString(key, writer);
+                    writer.write(prettyPrint ? ": " : ":");
+                    if (compound.isBoolean(key)) {
+                        writer.write(compound.getBoolean(key) ? "true" : "false");
+                    } else {
+                        writeValue(compound.getTag(key), writer, depth + 1);
+                    }
+                }
+                if (!first) newLine(writer, depth);
+                writer.write('}');
+            }
+            case 11 -> {
+                int[] values = ((StorageTagIntArray) tag).getIntArray();
+                writer.write('[');
+                for (int i = 0; i < values.length; i++) {
+                    if (i != 0) writer.write(',');
+                    writer.write(Integer.toString(values[i]));
+                }
+                writer.write(']');
+            }
+            case 12 -> {
+                long[] values = ((StorageTagLongArray) tag).getList();
+                writer.write('[');
+                for (int i = 0; i < values.length; i++) {
+                    if (i != 0) writer.write(',');
+                    writer.write(Long.toString(values[i]));
+                }
+                writer.write(']');
+            }
+            default -> writer.write("null");
+        }
+    }
+
+    private void newLine(Writer writer, int depth) throws IOException {
+        if (!prettyPrint) return;
+
+        writer.write('\n');
+        for (int i = 0; i < depth; i++) writer.write("  ");
+    }
+
+    private static void writeString(String string, Writer writer) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            String escape;
+            if (c == '"') escape = "\\\"";
+            else if (c == '\\') escape = "\\\\";
+            else if (c == '\n') escape = "\\n";
+            else if (c == '\r') escape = "\\r";
+            else if (c == '\t') escape = "\\t";
+            else if (c < 0x20 || c == 0x2028 || c == 0x2029) escape = String.format("\\u%04x", (int) c);
+            else continue;
+
+            writer.write(string, start, i - start);
+            writer.write(escape);
+            start = i + 1;
+        }
+        writer.write(string, start, string.length() - start);
+        writer.write('"');
+    }
+
+    private StorageBase toNumber(String literal) {
+        boolean decimal = (literal.indexOf('.') != -1) || (literal.indexOf('e') != -1) || (literal.indexOf('E') != -1);
+        if (!decimal && (numberType != NumberType.DOUBLE)) {
+            try {
+                long value = Long.parseLong(literal);
+                if ((numberType == NumberType.SMALLEST) && (value == (byte) value)) return new StorageTagByte((byte) value);
+                if ((numberType == NumberType.SMALLEST) && (value == (short) value)) return new StorageTagShort((short) value);
+                if (value == (int) value) return new StorageTagInt((int) value);
+                return new StorageTagLong(value);
+            } catch (NumberFormatException ignored) {
+                // Too large for a long, stored as a double instead
+            }
+        }
+        return new StorageTagDouble(Double.parseDouble(literal));
+    }
+
+    private StorageBase toList(List<StorageBase> values) {
+        int type = 0;
+        boolean numeric = true;
+        for (StorageBase value : values) {
+            byte id = value.getId();
+            numeric &= (id >= 1) && (id <= 6);
+            if ((type != 0) && (type != id) && !numeric)
+                throw new IllegalArgumentException("Unable to store a JSON array mixing " + StorageBase.getName(type) + " and " + StorageBase.getName(id));
+            type = Math.max(type, id);
+        }
+
+        if (numeric && packArrays && (type >= 1) && (type <= 4)) {
+            if (type == 4) {
+                long[] longs = new long[values.size()];
+                for (int i = 0; i < longs.length; i++) longs[i] = longValue(values.get(i));
+                return new StorageTagLongArray(longs);
+            }
+            int[] ints = new int[values.size()];
+            for (int i = 0; i < ints.length; i++) ints[i] = (int) longValue(values.get(i));
+            return new StorageTagIntArray(ints);
+        }
+
+        StorageTagList list = new StorageTagList();
+        for (StorageBase value : values) list.appendTag((numeric && (value.getId() != type)) ? widen(value, type) : value);
+        return list;
+    }
+
+    private static StorageBase widen(StorageBase tag, int type) {
+        switch (type) {
+            case 2:
+                return new StorageTagShort((short) longValue(tag));
+            case 3:
+                return new StorageTagInt((int) longValue(tag));
+            case 4:
+                return new StorageTagLong(longValue(tag));
+            case 5:
+                return new StorageTagFloat((float) doubleValue(tag));
+            default:
+                return new StorageTagDouble(doubleValue(tag));
+        }
+    }
+
+    private static long longValue(StorageBase tag) {
+        switch (tag.getId()) {
+            case 1:
+                return ((StorageTagByte) tag).getByte();
+            case 2:
+                return ((StorageTagShort) tag).getShort();
+            case 3:
+                return ((StorageTagInt) tag).getInt();
+            default:
+                return ((StorageTagLong) tag).getLong();
+        }
+    }
+
+    private static double doubleValue(StorageBase tag) {
+        if (tag.getId() == 5) return ((StorageTagFloat) tag).getFloat();
+        if (tag.getId() == 6) return ((StorageTagDouble) tag).getDouble();
+        return longValue(tag);
+    }
+
+    /**
+     * Builds the tags while the JSON is being parsed, {@link #value} holds the last completed value.
+     */
+    private final class TagHandler extends JsonHandler<List<StorageBase>, StorageTagCompound> {
+        private StorageBase value;
+        private Boolean bool;
+
+        @Override
+        public void endNull() {
+            value = null;
+            bool = null;
+        }
+
+        @Override
+        public void endBoolean(boolean value) {
+            this.value = new StorageTagByte((byte) (value ? 1 : 0));
+            bool = value;
+        }
+
+        @Override
+        public void endString(String string) {
+            value = new StorageTagString(string);
+            bool = null;
+        }
+
+        @Override
+        public void endNumber(String string) {
+            value = toNumber(string);
+            bool = null;
+        }
+
+        @Override
+        public List<StorageBase> startArray() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void endArrayValue(List<StorageBase> array) {
+            if (value != null) array.add(value);
+        }
+
+        @Override
+        public void endArray(List<StorageBase> array) {
+            value = toList(array);
+            bool = null;
+        }
+
+        @Override
+        public StorageTagCompound startObject() {
+            return new StorageTagCompound();
+        }
+
+        @Override
+        public void endObjectValue(StorageTagCompound object, String name) {
+            if (bool != null) {
+                object.setBoolean(name, bool);
+            } else if (value != null) {
+                object.setTag(name, value);
+            }
+        }
+
+        @Override
+        public void endObject(StorageTagCompound object) {
+            value = object;
+            bool = null;
+        }
+    }
+}
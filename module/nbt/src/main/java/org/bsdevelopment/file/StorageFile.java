@@ -1,27 +1,115 @@
 package org.bsdevelopment.file;
 
 import org.bsdevelopment.nbt.CompressedStreamTools;
+import org.bsdevelopment.nbt.NBTDigest;
+import org.bsdevelopment.nbt.StoragePatch;
 import org.bsdevelopment.nbt.StorageTagCompound;
+import org.bsdevelopment.nbt.codec.NBTCodec;
+import org.bsdevelopment.nbt.codec.NBTCodecs;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import org.bsdevelopment.nbt.other.NBTException;
+import org.bsdevelopment.nbt.other.NBTSizeException;
+import org.bsdevelopment.nbt.other.NBTSizeTracker;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 public class StorageFile extends StorageTagCompound {
+    // The save threads used when no executor is set, created when they are first needed
+    private static ExecutorService defaultExecutor = null;
+
     private final File file;
+    private NBTCodec codec = NBTCodecs.GZIP;
+    private boolean snapshotSaves = false;
+    private boolean sortKeys = false;
+    private long maxSaveSize = Long.MAX_VALUE;
+    private Executor saveExecutor = null;
+    private boolean computeDigest = false;
+    // The digest of the data as it was last written to the file, only kept when computeDigest is enabled
+    private volatile NBTDigest savedDigest = null;
+
+    // Guards the async save state below
+    private final Object saveLock = new Object();
+    private StorageTagCompound pendingSnapshot = null;
+    private CompletableFuture<Void> pendingSave = null;
+    private long pendingSequence = 0;
+    // The save that is being written on the save thread
+    private CompletableFuture<Void> writingSave = null;
+    private boolean saving = false;
+    // Numbers every save in the order its data was taken, so an older snapshot never overwrites newer data
+    private long saveSequence = 0;
+
+    // Serializes the writes to the file, guards writtenSequence
+    private final Object writeLock = new Object();
+    private long writtenSequence = 0;
+
+    // Set when the last write failed, so the next save is not skipped even though the data was marked clean
+    private volatile boolean saveFailed = false;
+
+    // Log mode, see setLogMode(boolean)
+    private final StorageLog log;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private boolean logMode = false;
+    private long compactionThreshold = 1024 * 1024;
+    // The data as it currently is on disk (data file + log), only kept while there is a log
+    private StorageTagCompound persisted = null;
 
     public StorageFile(File file) {
+        this(file, NBTSizeTracker.INFINITE);
+    }
+
+    /**
+     * Loads the file within the limits of the tracker, which can be checked afterwards for the size of the data.
+     * Use this for files that come from untrusted sources, such as uploads.
+     *
+     * @throws NBTSizeException If the data file goes over the limits, the file is left untouched.
+     */
+    public StorageFile(File file, NBTSizeTracker sizeTracker) {
         this.file = checkFile(file);
+        this.log = new StorageLog(this.file);
 
+        byte[] data = new byte[0];
         try { // Will fix the data not being read from the file
-            FileInputStream stream = new FileInputStream(this.file);
-            StorageTagCompound compound = CompressedStreamTools.readCompressed(stream);
+            data = Files.readAllBytes(this.file.toPath());
+            StorageTagCompound compound = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data), sizeTracker);
             compound.getKeySet().forEach(key -> {
                 setTag(key, compound.getTag(key));
             });
-            stream.close();
         } catch (IOException ignored) {}
+
+        if (data.length > 0) replayLog(data);
+        markClean();
+    }
+
+    /**
+     * Applies the changes in the log that belongs to the data that was read, if there is one.
+     */
+    private void replayLog(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        try {
+            List<StorageTagCompound> records = log.open(crc.getValue(), data.length);
+            if (records == null) return;
+
+            for (StorageTagCompound record : records) {
+                StoragePatch.fromCompound(record).apply(this);
+            }
+            persisted = copy();
+        } catch (IOException | NBTException e) {
+            e.printStackTrace();
+            persisted = null;
+        }
     }
 
     static File checkFile (File file) {
@@ -44,13 +132,390 @@ public class StorageFile extends StorageTagCompound {
         return this;
     }
 
+    /**
+     * Saves the data to the file, unless nothing was changed since it was loaded or last saved.
+     */
     public void save () {
+        if (!needsSave()) return;
+
+        // A waiting async save holds older data, this save replaces it
+        CompletableFuture<Void> replaced;
+        long sequence;
+        synchronized (saveLock) {
+            sequence = ++saveSequence;
+            replaced = pendingSave;
+            pendingSave = null;
+            pendingSnapshot = null;
+        }
+
+        try {
+            if (logMode) {
+                synchronized (writeLock) {
+                    appendToLog();
+                }
+            } else {
+                write(this, sequence);
+            }
+            markClean();
+            saveFailed = false;
+            if (replaced != null) replaced.complete(null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (replaced != null) replaced.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Waits until every save that was started before this call is written to the file (or failed).
+     */
+    public void flush() {
+        CompletableFuture<Void> pending;
+        CompletableFuture<Void> writing;
+        synchronized (saveLock) {
+            pending = pendingSave;
+            writing = writingSave;
+        }
+
+        if (writing != null) writing.handle((result, throwable) -> null).join();
+        if (pending != null) pending.handle((result, throwable) -> null).join();
+    }
+
+    /**
+     * Appends the changes since the last save to the log, or writes the full data if there is no log yet.
+     */
+    private void appendToLog() throws IOException {
+        if ((persisted == null) || !log.isOpen()) {
+            Written written = writeTemp(this);
+            log.commit(written.file, file, written.crc, written.length, true);
+            persisted = copy();
+            return;
+        }
+
+        StoragePatch patch = StoragePatch.diff(persisted, this);
+        if (patch.isEmpty()) return;
+
+        long size = log.append(patch.toCompound());
+        // Only the changed parts are copied, instead of the whole tree
+        try {
+            patch.apply(persisted);
+        } catch (NBTException e) {
+            e.printStackTrace();
+            persisted = copy();
+        }
+        if (size > compactionThreshold) compact();
+    }
+
+    /**
+     * Writes the data as it is on disk to a new data file on a background thread, and starts a new log.
+     */
+    private void compact() {
+        if (!compacting.compareAndSet(false, true)) return;
+
+        // persisted is patched by the next save, so the background thread gets its own copy
+        StorageTagCompound state = persisted.copy();
+        long position = log.size();
+        int generation = log.getGeneration();
+
         try {
-            if (!file.exists()) file.createNewFile();
-            FileOutputStream stream = new FileOutputStream(file);
-            CompressedStreamTools.writeCompressed(this, stream);
-            stream.close();
-        }catch (Exception ignored){}
+            getExecutor().execute(() -> {
+                Written written = null;
+                try {
+                    written = writeTemp(state);
+                    if (log.compact(written.file, file, written.crc, written.length, position, generation)) written = null;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (written != null) written.file.delete();
+                    compacting.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor was shut down, the log is compacted by a later save instead
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Returns whether the data was changed since it was loaded or last saved, or the file has no data yet.
+     */
+    public boolean needsSave() {
+        return saveFailed || isDirty() || (file.length() == 0);
+    }
+
+    /**
+     * Takes a snapshot of the current data and saves it on a background thread.
+     * <p>
+     * If a save of this file is already waiting to be written, that save is replaced by
+     * this snapshot and the same future is returned, so repeated saves only result in one write.
+     * <p>
+     * The snapshot is a full {@link #copy()}, unless {@link #setSnapshotSaves(boolean)} is enabled (which
+     * requires that no nested references are kept).
+     * In {@link #setLogMode(boolean) log mode} the changes are appended right away instead, as that only
+     * writes the changed data.
+     * <p>
+     * A later {@link #save()} replaces a save that is still waiting, and an older save never overwrites the data
+     * of a newer one. Use {@link #flush()} to wait for the saves, or {@link #shutdownSaves()} when the
+     * program or plugin stops, as the default save threads do not keep the JVM running.
+     *
+     * @return A future that completes once the data is on disk, or completes exceptionally if the save failed.
+     */
+    public CompletableFuture<Void> saveAsync() {
+        if (!needsSave()) return CompletableFuture.completedFuture(null);
+
+        if (logMode) {
+            try {
+                synchronized (writeLock) {
+                    appendToLog();
+                }
+                markClean();
+                saveFailed = false;
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        StorageTagCompound snapshot = snapshotSaves ? snapshot() : copy();
+        markClean();
+
+        synchronized (saveLock) {
+            pendingSnapshot = snapshot;
+            pendingSequence = ++saveSequence;
+            if (pendingSave != null) return pendingSave;
+
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            pendingSave = future;
+            if (!saving) {
+                saving = true;
+                try {
+                    getExecutor().execute(this::writePending);
+                } catch (RejectedExecutionException e) {
+                    // The executor was shut down, so write it right away
+                    saving = false;
+                    writePending();
+                }
+            }
+            return future;
+        }
+    }
+
+    private void writePending() {
+        while (true) {
+            StorageTagCompound snapshot;
+            CompletableFuture<Void> future;
+            long sequence;
+            synchronized (saveLock) {
+                if (pendingSave == null) {
+                    saving = false;
+                    writingSave = null;
+                    return;
+                }
+                snapshot = pendingSnapshot;
+                future = pendingSave;
+                sequence = pendingSequence;
+                pendingSnapshot = null;
+                pendingSave = null;
+                writingSave = future;
+            }
+
+            try {
+                write(snapshot, sequence);
+                saveFailed = false;
+                future.complete(null);
+            } catch (Throwable throwable) {
+                saveFailed = true;
+                future.completeExceptionally(throwable);
+            }
+        }
+    }
+
+    /**
+     * Writes the compound to a temporary file next to the real file, then moves it over the real file
+     * so a crash while writing never leaves a half written file behind. Any log is dropped, as the
+     * file now holds all the data.
+     */
+    private void write(StorageTagCompound compound, long sequence) throws IOException {
+        synchronized (writeLock) {
+            // A newer save already reached the file
+            if (sequence < writtenSequence) return;
+
+            Written written = writeTemp(compound);
+            log.commit(written.file, file, written.crc, written.length, false);
+            writtenSequence = sequence;
+        }
+    }
+
+    private Written writeTemp(StorageTagCompound compound) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+
+        File temp = File.createTempFile(file.getName() + ".save", ".tmp", parent);
+        CRC32 crc = new CRC32();
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            NBTSizeTracker sizeTracker = (maxSaveSize == Long.MAX_VALUE) ? NBTSizeTracker.INFINITE : new NBTSizeTracker(maxSaveSize, Long.MAX_VALUE);
+            OutputStream output = new NonClosingStream(new CheckedOutputStream(stream, crc));
+            if (computeDigest) {
+                savedDigest = CompressedStreamTools.writeCompressedDigest(compound, output, codec, sortKeys, sizeTracker);
+            } else {
+                CompressedStreamTools.writeCompressed(compound, output, codec, sortKeys, sizeTracker);
+            }
+            stream.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } catch (NBTSizeException e) {
+            temp.delete();
+            throw new IOException("Could not save " + file.getName(), e);
+        }
+        return new Written(temp, crc.getValue(), temp.length());
+    }
+
+    /**
+     * Sets the executor the background saves and log compactions run on, or {@code null} to use the
+     * shared save threads. The caller is responsible for shutting down its own executor.
+     */
+    public StorageFile setSaveExecutor(Executor saveExecutor) {
+        this.saveExecutor = saveExecutor;
+        return this;
+    }
+
+    public Executor getSaveExecutor() {
+        return saveExecutor;
+    }
+
+    private Executor getExecutor() {
+        if (saveExecutor != null) return saveExecutor;
+
+        synchronized (StorageFile.class) {
+            if ((defaultExecutor == null) || defaultExecutor.isShutdown()) {
+                defaultExecutor = Executors.newFixedThreadPool(2, runnable -> {
+                    Thread thread = new Thread(runnable, "StorageFile-Save");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return defaultExecutor;
+        }
+    }
+
+    /**
+     * Stops the shared save threads once the saves that are already queued are written, waiting up to
+     * 30 seconds for them. Call this when the program or plugin stops, a later save starts new threads.
+     */
+    public static void shutdownSaves() {
+        ExecutorService executor;
+        synchronized (StorageFile.class) {
+            executor = defaultExecutor;
+            defaultExecutor = null;
+        }
+        if (executor == null) return;
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets the codec used when saving, files are always read using the codec they were saved with.
+     */
+    public StorageFile setCodec(NBTCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    public NBTCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets whether compound keys are saved in alphabetical order instead of the order they were added in,
+     * so saving equal data always results in the same file contents.
+     */
+    public StorageFile setSortKeys(boolean sortKeys) {
+        this.sortKeys = sortKeys;
+        return this;
+    }
+
+    public boolean isSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * Sets the largest size in bytes the uncompressed data can have to be saved, bigger data fails to save
+     * and the file keeps its previous contents. Changes appended in {@link #setLogMode(boolean) log mode} are not limited.
+     */
+    public StorageFile setMaxSaveSize(long maxSaveSize) {
+        this.maxSaveSize = maxSaveSize;
+        return this;
+    }
+
+    public long getMaxSaveSize() {
+        return maxSaveSize;
+    }
+
+    /**
+     * Sets whether a {@link NBTDigest digest} of the data is computed every time it is written to the file,
+     * which can then be retrieved with {@link #getSavedDigest()}.
+     */
+    public StorageFile setComputeDigest(boolean computeDigest) {
+        this.computeDigest = computeDigest;
+        if (!computeDigest) savedDigest = null;
+        return this;
+    }
+
+    public boolean isComputeDigest() {
+        return computeDigest;
+    }
+
+    /**
+     * Gets the {@link NBTDigest digest} of the data as it was last written to the file (not including the log),
+     * or null if it was not written since it was loaded or {@link #setComputeDigest(boolean) computing it} is disabled.
+     * Only comparable between saves with {@link #setSortKeys(boolean) sorted keys}.
+     */
+    public NBTDigest getSavedDigest() {
+        return savedDigest;
+    }
+
+    /**
+     * Sets whether {@link #saveAsync()} takes an O(1) copy-on-write {@link #snapshot()} instead of a full copy.
+     * <p>
+     * Disabled by default. Only enable this if nested compounds/lists are always retrieved from this file
+     * right before they are changed and never kept in a field. A nested reference retrieved before the save
+     * is shared with the snapshot, so changing it while the save is waiting or being written changes the
+     * data being written, see {@link StorageTagCompound#snapshot()}.
+     */
+    public StorageFile setSnapshotSaves(boolean snapshotSaves) {
+        this.snapshotSaves = snapshotSaves;
+        return this;
+    }
+
+    /**
+     * Sets whether saves only append the changed data to a log next to the file ({@code <name>.log}),
+     * instead of rewriting the whole file. Once the log grows past the
+     * {@link #setCompactionThreshold(long) compaction threshold}, the full data is written to the file
+     * on a background thread and the log starts over.
+     * <p>
+     * The log is always read when the file is loaded, even if log mode is not enabled. Saving while log
+     * mode is disabled writes the full data and removes the log.
+     */
+    public StorageFile setLogMode(boolean logMode) {
+        this.logMode = logMode;
+        return this;
+    }
+
+    public boolean isLogMode() {
+        return logMode;
+    }
+
+    /**
+     * Sets the size in bytes the log can grow to before it is compacted into the file.
+     */
+    public StorageFile setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+        return this;
     }
 
     public boolean move(String oldKey, String newKey) {
@@ -66,4 +531,26 @@ public class StorageFile extends StorageTagCompound {
     public File getFile() {
         return file;
     }
-}
\ No newline at end of file
+
+    private record Written(File file, long crc, long length) {
+    }
+
+    /**
+     * Keeps the file stream open after the compressed data is written, so it can still be synced.
+     */
+    private static class NonClosingStream extends FilterOutputStream {
+        NonClosingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.bsdevelopment.file;
+
+import org.bsdevelopment.nbt.CompressedStreamTools;
+import org.bsdevelopment.nbt.StorageBase;
+import org.bsdevelopment.nbt.StorageTagCompound;
+import org.bsdevelopment.nbt.StorageTagDouble;
+import org.bsdevelopment.nbt.StorageTagList;
+import org.bsdevelopment.nbt.StorageTagLong;
+import org.bsdevelopment.nbt.StorageTagString;
+import org.bsdevelopment.nbt.codec.NBTCodecs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Key-value store for {@link StorageTagCompound} records, with optional secondary indexes on tag paths.
+ * <p>
+ * Records are kept in a {@link StorageRegionFile}. Indexes are kept in memory and saved as sorted
+ * segments to {@code <file>.idx} on {@link #flush()} and {@link #close()}. The index file is deleted on the
+ * first change after it was saved, so after a crash the indexes are rebuilt from the records. It is also only
+ * used when the {@link StorageRegionFile#getTableChecksum() table checksum} and modification time of the records
+ * still match the ones it was saved with.
+ * <p>
+ * Paths are compound keys separated by dots (e.g. {@code "stats.level"}). Numeric tags are indexed as
+ * numbers and string tags as strings, other tags and missing paths are not indexed.
+ *
+ * <pre>{@code
+ * StorageIndexedStore store = new StorageIndexedStore(new File(folder, "players.db"));
+ * store.addIndex("stats.level");
+ * store.put(uuid.toString(), compound);
+ * List<String> players = store.findRange("stats.level", 10, 20);
+ * }</pre>
+ */
+public class StorageIndexedStore implements Closeable {
+    public static final int DEFAULT_CAPACITY = 131072;
+
+    // Numbers before strings, integers and decimals are compared exactly (widening a long to a double is not)
+    private static final Comparator<Object> VALUE_ORDER = (first, second) -> {
+        if (first instanceof String a) return (second instanceof String b) ? a.compareTo(b) : 1;
+        if (second instanceof String) return -1;
+        if (first instanceof Long a) return (second instanceof Long b) ? Long.compare(a, b) : compare(a, (Double) second);
+        if (second instanceof Long b) return -compare(b, (Double) first);
+        return Double.compare((Double) first, (Double) second);
+    };
+
+    private final StorageRegionFile region;
+    private final File indexFile;
+    private final Map<String, Index> indexes = new LinkedHashMap<>();
+
+    // Indexes read from the index file, used by addIndex instead of scanning every record
+    private final Map<String, StorageTagList> savedIndexes = new HashMap<>();
+    private boolean indexFileValid;
+
+    public StorageIndexedStore(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum amount of records, only used when the file is created.
+     */
+    public StorageIndexedStore(File file, int capacity) throws IOException {
+        this.region = new StorageRegionFile(file, capacity);
+        this.indexFile = new File(file.getPath() + ".idx");
+        loadIndexFile();
+    }
+
+    private void loadIndexFile() {
+        indexFileValid = false;
+        if (!indexFile.isFile()) return;
+
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(indexFile))) {
+            StorageTagCompound compound = CompressedStreamTools.readCompressed(stream);
+            if (compound.getInteger("records") != region.size()) return;
+            if (compound.getLong("checksum") != region.getTableChecksum()) return;
+            if (compound.getLong("modified") != region.getFile().lastModified()) return;
+
+            StorageTagCompound saved = compound.getCompoundTag("indexes");
+            for (String path : saved.getKeySet()) savedIndexes.put(path, saved.getTagList(path, 10));
+            indexFileValid = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds an index on the given path. The index is taken from the index file when it was saved,
+     * otherwise it is built by reading every record.
+     */
+    public synchronized StorageIndexedStore addIndex(String path) throws IOException {
+        if (indexes.containsKey(path)) return this;
+
+        Index index = new Index(path);
+        StorageTagList saved = savedIndexes.remove(path);
+        if (saved != null) {
+            for (int i = 0; i < saved.tagCount(); i++) {
+                StorageTagCompound entry = saved.getCompoundTagAt(i);
+                Object value = indexValue(entry, "v");
+                if (value != null) index.add(entry.getString("k"), value);
+            }
+        } else {
+            for (String key : region.getKeys()) {
+                index.add(key, index.valueOf(region.read(key)));
+            }
+            invalidateIndexFile();
+        }
+
+        indexes.put(path, index);
+        return this;
+    }
+
+    /**
+     * @throws IOException If the outdated index file could not be deleted, the index is kept.
+     */
+    public synchronized StorageIndexedStore removeIndex(String path) throws IOException {
+        if (!indexes.containsKey(path)) return this;
+
+        invalidateIndexFile();
+        indexes.remove(path);
+        return this;
+    }
+
+    public synchronized Set<String> getIndexes() {
+        return new LinkedHashSet<>(indexes.keySet());
+    }
+
+    /**
+     * Stores the record under the given key, replacing any previous record.
+     *
+     * @throws IOException If the record could not be written, or the outdated index file could not be deleted.
+     */
+    public synchronized void put(String key, StorageTagCompound compound) throws IOException {
+        invalidateIndexFile();
+        region.write(key, compound);
+        for (Index index : indexes.values()) {
+            index.remove(key);
+            index.add(key, index.valueOf(compound));
+        }
+    }
+
+    /**
+     * @return The record stored under the given key, or null if there is none.
+     */
+    public synchronized StorageTagCompound get(String key) throws IOException {
+        return region.read(key);
+    }
+
+    /**
+     * Reads the records for the given keys, in the same order. Keys without a record are skipped.
+     */
+    public synchronized Map<String, StorageTagCompound> getAll(Collection<String> keys) throws IOException {
+        Map<String, StorageTagCompound> records = new LinkedHashMap<>();
+        for (String key : keys) {
+            StorageTagCompound compound = region.read(key);
+            if (compound != null) records.put(key, compound);
+        }
+        return records;
+    }
+
+    public synchronized boolean remove(String key) throws IOException {
+        if (!region.contains(key)) return false;
+
+        invalidateIndexFile();
+        region.remove(key);
+        for (Index index : indexes.values()) index.remove(key);
+        return true;
+    }
+
+    public synchronized boolean contains(String key) {
+        return region.contains(key);
+    }
+
+    public synchronized Set<String> getKeys() {
+        return region.getKeys();
+    }
+
+    public synchronized int size() {
+        return region.size();
+    }
+
+    /**
+     * Finds the keys of all records where the indexed path equals the value.
+     *
+     * @param value A number or string
+     */
+    public synchronized List<String> find(String path, Object value) {
+        Set<String> keys = getIndex(path).values.get(normalize(value));
+        return (keys == null) ? new ArrayList<>() : new ArrayList<>(keys);
+    }
+
+    /**
+     * Finds the keys of all records where the indexed path is between min and max (both inclusive),
+     * ordered by the indexed value.
+     *
+     * @param min The lowest value, or null for no lower bound
+     * @param max The highest value, or null for no upper bound
+     */
+    public synchronized List<String> findRange(String path, Object min, Object max) {
+        NavigableMap<Object, Set<String>> values = getIndex(path).values;
+        if (min != null && max != null) {
+            values = values.subMap(normalize(min), true, normalize(max), true);
+        } else if (min != null) {
+            values = values.tailMap(normalize(min), true);
+        } else if (max != null) {
+            values = values.headMap(normalize(max), true);
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (Set<String> set : values.values()) keys.addAll(set);
+        return keys;
+    }
+
+    /**
+     * Saves the indexes and makes sure all records are stored on the disk.
+     */
+    public synchronized void flush() throws IOException {
+        region.flush();
+        if (indexFileValid) return;
+
+        StorageTagCompound saved = new StorageTagCompound();
+        for (Index index : indexes.values()) saved.setTag(index.path, index.toList());
+        // Keep indexes that were saved but not added this time
+        savedIndexes.forEach(saved::setTag);
+
+        StorageTagCompound compound = new StorageTagCompound();
+        compound.setInteger("records", region.size());
+        compound.setLong("checksum", region.getTableChecksum());
+        compound.setLong("modified", region.getFile().lastModified());
+        compound.setTag("indexes", saved);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressedStreamTools.writeCompressed(compound, bytes, NBTCodecs.DEFLATE);
+
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        }
+        StorageLog.move(temp.toPath(), indexFile.toPath());
+        indexFileValid = true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            region.close();
+        }
+    }
+
+    /**
+     * Deletes the index file before the records change, so it is never loaded with outdated indexes.
+     *
+     * @throws IOException If the file could not be deleted, the change must not be made.
+     */
+    private void invalidateIndexFile() throws IOException {
+        if (!indexFileValid) return;
+
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Failed to delete outdated index file " + indexFile);
+        }
+        indexFileValid = false;
+        // Indexes that were not added can't be kept up to date
+        savedIndexes.clear();
+    }
+
+    private Index getIndex(String path) {
+        Index index = indexes.get(path);
+        if (index == null) throw new IllegalArgumentException("There is no index on '" + path + "'");
+        return index;
+    }
+
+    /**
+     * Compares a long with a double without rounding the long, in the order of {@link Double#compare(double, double)}.
+     */
+    private static int compare(long first, double second) {
+        if (Double.isNaN(second) || second >= 0x1p63) return -1;
+        if (second < -0x1p63) return 1;
+
+        long whole = (long) second;
+        if (first != whole) return Long.compare(first, whole);
+        double fraction = second - whole;
+        return (fraction > 0) ? -1 : (fraction < 0) ? 1 : 0;
+    }
+
+    private static Object normalize(Object value) {
+        // -0.0 is stored as 0.0, as both are equal to the integer 0
+        if ((value instanceof Double) || (value instanceof Float)) return ((Number) value).doubleValue() + 0.0;
+        if (value instanceof Number number) return number.longValue();
+        if (value instanceof String) return value;
+        throw new IllegalArgumentException("Only numbers and strings can be looked up, got " + value);
+    }
+
+    private static Object indexValue(StorageTagCompound compound, String key) {
+        switch (compound.getTagId(key)) {
+            case 1: case 2: case 3: case 4:
+                return compound.getLong(key);
+            case 5: case 6:
+                return compound.getDouble(key) + 0.0;
+            case 8:
+                return compound.getString(key);
+            default:
+                return null;
+        }
+    }
+
+    private static final class Index {
+        private final String path;
+        private final String[] steps;
+        private final NavigableMap<Object, Set<String>> values = new TreeMap<>(VALUE_ORDER);
+        private final Map<String, Object> byKey = new HashMap<>();
+
+        private Index(String path) {
+            this.path = path;
+            this.steps = path.split("\\.");
+        }
+
+        private Object valueOf(StorageTagCompound compound) {
+            for (int i = 0; i < steps.length - 1; i++) {
+                if (compound == null || !compound.hasKey(steps[i], 10)) return null;
+                compound = compound.getCompoundTag(steps[i]);
+            }
+            return (compound == null) ? null : indexValue(compound, steps[steps.length - 1]);
+        }
+
+        private void add(String key, Object value) {
+            if (value == null) return;
+
+            values.computeIfAbsent(value, v -> new TreeSet<>()).add(key);
+            byKey.put(key, value);
+        }
+
+        private void remove(String key) {
+            Object value = byKey.remove(key);
+            if (value == null) return;
+
+            Set<String> keys = values.get(value);
+            keys.remove(key);
+            if (keys.isEmpty()) values.remove(value);
+        }
+
+        private StorageTagList toList() {
+            StorageTagList list = new StorageTagList();
+            values.forEach((value, keys) -> {
+                StorageBase tag = (value instanceof String string) ? new StorageTagString(string)
+                        : (value instanceof Long number) ? new StorageTagLong(number) : new StorageTagDouble((Double) value);
+                for (String key : keys) {
+                    StorageTagCompound entry = new StorageTagCompound();
+                    entry.setString("k", key);
+                    entry.setTag("v", tag);
+                    list.appendTag(entry);
+                }
+            });
+            return list;
+        }
+    }
+}
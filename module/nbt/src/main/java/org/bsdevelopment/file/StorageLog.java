@@ -0,0 +1,243 @@
+package org.bsdevelopment.file;
+
+import org.bsdevelopment.nbt.CompressedStreamTools;
+import org.bsdevelopment.nbt.StorageTagCompound;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only log kept next to a {@link StorageFile} while it is in log mode.
+ * <p>
+ * The log starts with a header holding the CRC32 and length of the data file it applies to, so a
+ * log left behind by an older version of the data file is never replayed. Each record is framed as
+ * {@code [length][crc32][uncompressed compound]}, a record that was only partially written when the
+ * server stopped fails its checksum and is cut off when the log is opened.
+ * <p>
+ * When compacting, a new log is written to {@code <name>.log.tmp} before the new data file is moved
+ * into place, so after a crash between the two moves the temporary log still matches the data file.
+ */
+class StorageLog {
+    private static final int MAGIC = 0x42534C47; // BSLG
+    private static final int HEADER_SIZE = 16;
+
+    private final File file;
+    private final File tempFile;
+    private FileChannel channel = null;
+
+    // Changes every time the log is replaced, so a compaction that started before that can be dropped
+    private int generation = 0;
+
+    StorageLog(File dataFile) {
+        File parent = dataFile.getAbsoluteFile().getParentFile();
+        this.file = new File(parent, dataFile.getName() + ".log");
+        this.tempFile = new File(parent, dataFile.getName() + ".log.tmp");
+    }
+
+    /**
+     * Opens the log that belongs to the data file with the given checksum, and reads all complete records.
+     * Logs that belong to a different version of the data file are deleted.
+     *
+     * @return The records in the log, or null if there is no log for this data file.
+     */
+    synchronized List<StorageTagCompound> open(long baseCrc, long baseLength) throws IOException {
+        close();
+
+        if (matches(tempFile, baseCrc, baseLength)) {
+            move(tempFile.toPath(), file.toPath());
+        } else {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        if (!matches(file, baseCrc, baseLength)) {
+            Files.deleteIfExists(file.toPath());
+            return null;
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        List<StorageTagCompound> records = new ArrayList<>();
+        long position = HEADER_SIZE;
+        long size = channel.size();
+        ByteBuffer frame = ByteBuffer.allocate(8);
+
+        while (position + 8 <= size) {
+            frame.clear();
+            readFully(frame, position);
+            int length = frame.getInt(0);
+            if ((length <= 0) || (position + 8 + length > size)) break;
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + 8);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != frame.getInt(4)) break;
+
+            records.add(CompressedStreamTools.read(payload.flip()));
+            position += 8 + length;
+        }
+
+        // Drop whatever was left of a record that was not fully written
+        if (position < size) channel.truncate(position);
+        channel.position(position);
+        return records;
+    }
+
+    /**
+     * Starts a new, empty log for the data file with the given checksum.
+     */
+    synchronized void reset(long baseCrc, long baseLength) throws IOException {
+        close();
+        generation++;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeFully(channel, header(baseCrc, baseLength));
+        channel.force(false);
+    }
+
+    synchronized boolean isOpen() {
+        return channel != null;
+    }
+
+    /**
+     * Appends a record to the log and syncs it to disk.
+     *
+     * @return The size of the log after the record was added.
+     */
+    synchronized long append(StorageTagCompound record) throws IOException {
+        if (channel == null) throw new IOException("The log is not open");
+
+        ByteBuffer payload = CompressedStreamTools.writeBuffer(record);
+        int length = payload.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer frame = ByteBuffer.allocate(8 + length);
+        frame.putInt(length).putInt((int) crc.getValue()).put(payload).flip();
+
+        long start = channel.position();
+        try {
+            writeFully(channel, frame);
+            channel.force(false);
+        } catch (IOException e) {
+            // Never leave a half written record in front of the records that come after it
+            channel.truncate(start);
+            channel.position(start);
+            throw e;
+        }
+        return channel.position();
+    }
+
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    synchronized long size() {
+        try {
+            return (channel == null) ? 0 : channel.position();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Moves a fully written data file into place, then either starts a new log for it or deletes the log.
+     */
+    synchronized void commit(File written, File dataFile, long baseCrc, long baseLength, boolean startLog) throws IOException {
+        move(written.toPath(), dataFile.toPath());
+        if (startLog) {
+            reset(baseCrc, baseLength);
+        } else {
+            delete();
+        }
+    }
+
+    /**
+     * Replaces the data file with the compacted one and starts a new log holding only the records
+     * that were appended after {@code fromPosition}.
+     *
+     * @return false if the log was replaced since the compaction started, in which case nothing was changed.
+     */
+    synchronized boolean compact(File compacted, File dataFile, long baseCrc, long baseLength, long fromPosition, int generation) throws IOException {
+        if ((channel == null) || (generation != this.generation)) return false;
+
+        try (FileChannel temp = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(temp, header(baseCrc, baseLength));
+            long end = channel.position();
+            long position = fromPosition;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, temp);
+            }
+            temp.force(false);
+        }
+
+        close();
+        this.generation++;
+        move(compacted.toPath(), dataFile.toPath());
+        move(tempFile.toPath(), file.toPath());
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return true;
+    }
+
+    /**
+     * Closes and deletes the log, used once the full data was written to the data file.
+     */
+    synchronized void delete() throws IOException {
+        close();
+        generation++;
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(tempFile.toPath());
+    }
+
+    synchronized void close() throws IOException {
+        if (channel == null) return;
+
+        channel.close();
+        channel = null;
+    }
+
+    private static boolean matches(File file, long baseCrc, long baseLength) throws IOException {
+        if (!file.exists() || (file.length() < HEADER_SIZE)) return false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) return false;
+            }
+            header.flip();
+            return (header.getInt() == MAGIC) && (header.getInt() == (int) baseCrc) && (header.getLong() == baseLength);
+        }
+    }
+
+    private static ByteBuffer header(long baseCrc, long baseLength) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt((int) baseCrc).putLong(baseLength).flip();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of log");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.bsdevelopment.file;
+
+import org.bsdevelopment.nbt.CompressedStreamTools;
+import org.bsdevelopment.nbt.StorageTagCompound;
+import org.bsdevelopment.nbt.codec.NBTCodec;
+import org.bsdevelopment.nbt.codec.NBTCodecs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Stores many keyed {@link StorageTagCompound} records in a single file, in the same way the game
+ * stores chunks in region files.
+ * <p>
+ * The file is split into sectors of {@value #SECTOR_SIZE} bytes. The first sectors hold the header:
+ * the magic, the amount of slots, and an offset table with the first sector and sector count for every slot.
+ * Each record starts at a sector and is written as {@code [length][key][compressed compound]}.
+ * <p>
+ * Records are rewritten in place when they still fit in their sectors, otherwise they are moved to
+ * free sectors (or the end of the file) and the offset table is updated after the data was written.
+ *
+ * <pre>{@code
+ * try (StorageRegionFile region = new StorageRegionFile(new File(folder, "players.region"))) {
+ *     region.write(uuid.toString(), compound);
+ *     StorageTagCompound stored = region.read(uuid.toString());
+ * }
+ * }</pre>
+ */
+public class StorageRegionFile implements Closeable {
+    public static final int SECTOR_SIZE = 4096;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int MAGIC = 0x42535247; // BSRG
+    private static final int HEADER_PREFIX = 8;
+    private static final int ENTRY_SIZE = 8;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int capacity;
+    private final int headerSectors;
+    private final int[] sectorOffsets;
+    private final int[] sectorCounts;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final BitSet usedSectors = new BitSet();
+    // Every slot before this one is in use
+    private int freeHint = 0;
+    private NBTCodec codec = NBTCodecs.DEFLATE;
+
+    public StorageRegionFile(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens (or creates) a region file.
+     *
+     * @param capacity The maximum amount of records, only used when the file is created.
+     */
+    public StorageRegionFile(File file, int capacity) throws IOException {
+        this.file = StorageFile.checkFile(file);
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if (channel.size() == 0) {
+                if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+                ByteBuffer header = ByteBuffer.allocate(HEADER_PREFIX).putInt(MAGIC).putInt(capacity).flip();
+                writeFully(header, 0);
+            } else {
+                ByteBuffer header = readFully(HEADER_PREFIX, 0);
+                if (header.getInt() != MAGIC) throw new IOException("Not a region file: " + file);
+                capacity = header.getInt();
+                if (capacity <= 0) throw new IOException("Corrupt region file header: " + file);
+            }
+
+            this.capacity = capacity;
+            this.headerSectors = sectorsFor(HEADER_PREFIX + (long) capacity * ENTRY_SIZE);
+            this.sectorOffsets = new int[capacity];
+            this.sectorCounts = new int[capacity];
+            usedSectors.set(0, headerSectors);
+
+            // Make sure the whole header exists, so the file size is always a multiple of the sector size
+            if (channel.size() < (long) headerSectors * SECTOR_SIZE) writeFully(ByteBuffer.allocate(1), (long) headerSectors * SECTOR_SIZE - 1);
+
+            loadTable();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void loadTable() throws IOException {
+        ByteBuffer table = readFully(capacity * ENTRY_SIZE, HEADER_PREFIX);
+        long fileSectors = channel.size() / SECTOR_SIZE;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = table.getInt();
+            int count = table.getInt();
+            if (offset == 0 || count == 0) continue;
+
+            // Skip entries pointing outside the file or into the header, rather than failing to open the file
+            if (offset < headerSectors || (long) offset + count > fileSectors || usedSectors.get(offset, offset + count).cardinality() > 0) continue;
+
+            ByteBuffer prefix = readFully(6, (long) offset * SECTOR_SIZE);
+            prefix.getInt();
+            int keyLength = prefix.getShort() & 0xFFFF;
+            String key = new DataInputStream(new ByteArrayInputStream(readFully(2 + keyLength, (long) offset * SECTOR_SIZE + 4).array())).readUTF();
+
+            sectorOffsets[slot] = offset;
+            sectorCounts[slot] = count;
+            usedSectors.set(offset, offset + count);
+            slots.put(key, slot);
+        }
+    }
+
+    /**
+     * Sets the codec used when writing records, records are always read using the codec they were written with.
+     */
+    public StorageRegionFile setCodec(NBTCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Reads the record with the given key.
+     *
+     * @return The stored compound, or null if there is no record with that key.
+     */
+    public synchronized StorageTagCompound read(String key) throws IOException {
+        Integer slot = slots.get(key);
+        if (slot == null) return null;
+
+        long position = (long) sectorOffsets[slot] * SECTOR_SIZE;
+        int length = readFully(4, position).getInt();
+        if (length < 0 || length > sectorCounts[slot] * SECTOR_SIZE - 4) throw new IOException("Corrupt record '" + key + "' in " + file);
+
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(readFully(length, position + 4).array()));
+        stream.readUTF();
+        return CompressedStreamTools.readCompressed(stream);
+    }
+
+    /**
+     * Writes the record with the given key, replacing the previous record with that key.
+     *
+     * @throws IOException If the record is new and every slot is already in use.
+     */
+    public synchronized void write(String key, StorageTagCompound compound) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream stream = new DataOutputStream(bytes);
+        stream.writeInt(0);
+        stream.writeUTF(key);
+        CompressedStreamTools.writeCompressed(compound, stream, codec);
+
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        data.putInt(0, data.capacity() - 4);
+        int needed = sectorsFor(data.capacity());
+
+        Integer slot = slots.get(key);
+        if (slot == null) slot = freeSlot();
+
+        // Rewrite in place if the record still fits in its sectors
+        if (sectorCounts[slot] >= needed) {
+            writeFully(data, (long) sectorOffsets[slot] * SECTOR_SIZE);
+            if (sectorCounts[slot] > needed) {
+                usedSectors.clear(sectorOffsets[slot] + needed, sectorOffsets[slot] + sectorCounts[slot]);
+                setEntry(slot, sectorOffsets[slot], needed);
+            }
+            slots.put(key, slot);
+            return;
+        }
+
+        int offset = allocate(needed);
+        writeFully(data, (long) offset * SECTOR_SIZE);
+        padToSector((long) offset * SECTOR_SIZE + data.capacity());
+
+        // Only free the old sectors once the table points at the new data
+        int oldOffset = sectorOffsets[slot];
+        int oldCount = sectorCounts[slot];
+        setEntry(slot, offset, needed);
+        if (oldCount > 0) usedSectors.clear(oldOffset, oldOffset + oldCount);
+        slots.put(key, slot);
+    }
+
+    /**
+     * Removes the record with the given key.
+     *
+     * @return true if there was a record with that key.
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        Integer slot = slots.remove(key);
+        if (slot == null) return false;
+
+        int offset = sectorOffsets[slot];
+        int count = sectorCounts[slot];
+        setEntry(slot, 0, 0);
+        usedSectors.clear(offset, offset + count);
+        if (slot < freeHint) freeHint = slot;
+        return true;
+    }
+
+    public synchronized boolean contains(String key) {
+        return slots.containsKey(key);
+    }
+
+    public synchronized Set<String> getKeys() {
+        return new HashSet<>(slots.keySet());
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets a checksum of the offset table and the keys, which changes whenever a record is added,
+     * removed or moved to other sectors.
+     */
+    public synchronized long getTableChecksum() {
+        String[] keys = new String[capacity];
+        slots.forEach((key, slot) -> keys[slot] = key);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer entry = ByteBuffer.allocate(12);
+        for (int slot = 0; slot < capacity; slot++) {
+            if (keys[slot] == null) continue;
+
+            crc.update(entry.clear().putInt(slot).putInt(sectorOffsets[slot]).putInt(sectorCounts[slot]).flip());
+            crc.update(keys[slot].getBytes(StandardCharsets.UTF_8));
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Makes sure everything that was written is stored on the disk.
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+
+        channel.force(true);
+        channel.close();
+    }
+
+    private int freeSlot() throws IOException {
+        // The hint is only moved past a slot once it is used, in case writing the record fails
+        for (int slot = freeHint; slot < capacity; slot++) {
+            if (sectorCounts[slot] == 0) {
+                freeHint = slot;
+                return slot;
+            }
+        }
+        freeHint = capacity;
+        throw new IOException("Region file " + file + " is full (" + capacity + " records)");
+    }
+
+    /**
+     * Finds the first run of free sectors that is large enough, or the end of the file.
+     */
+    private int allocate(int count) {
+        int start = usedSectors.nextClearBit(headerSectors);
+        while (true) {
+            int end = usedSectors.nextSetBit(start);
+            if (end == -1 || end - start >= count) break;
+            start = usedSectors.nextClearBit(end);
+        }
+        usedSectors.set(start, start + count);
+        return start;
+    }
+
+    private void setEntry(int slot, int offset, int count) throws IOException {
+        sectorOffsets[slot] = offset;
+        sectorCounts[slot] = count;
+        writeFully(ByteBuffer.allocate(ENTRY_SIZE).putInt(offset).putInt(count).flip(), HEADER_PREFIX + (long) slot * ENTRY_SIZE);
+    }
+
+    private void padToSector(long end) throws IOException {
+        long padded = (long) sectorsFor(end) * SECTOR_SIZE;
+        if ((end < padded) && (channel.size() < padded)) writeFully(ByteBuffer.allocate(1), padded - 1);
+    }
+
+    private static int sectorsFor(long bytes) {
+        return (int) ((bytes + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    private ByteBuffer readFully(int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of region file " + file);
+        }
+        return buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
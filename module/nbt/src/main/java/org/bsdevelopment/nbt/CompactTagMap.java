@@ -0,0 +1,458 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTSizeTracker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The children of a {@link StorageTagCompound}, kept in flat key/value arrays in insertion order.
+ * <p>
+ * Small compounds (which are most of them) are searched linearly, larger ones get an open-addressing
+ * index of positions into the arrays. Compared to a {@link java.util.HashMap} this needs no entry objects,
+ * iterates in a stable order and is walked by position through {@link #keyAt(int)} and {@link #valueAt(int)}.
+ * It also holds the flag for keys stored with {@link StorageTagCompound#setBoolean(String, boolean)}.
+ * <p>
+ * Removed entries are left behind as tombstones (a null key) so removing is O(1). Lookups, iterators and positions
+ * skip them, they are only compacted away when a key is added to full arrays. Reading never moves entries, so
+ * iterators can keep their slot while other tags are read.
+ */
+final class CompactTagMap extends AbstractMap<String, StorageBase> {
+    /**
+     * Maps up to this size are searched linearly.
+     */
+    static final int LINEAR_THRESHOLD = 8;
+
+    private static final String[] NO_KEYS = new String[0];
+    private static final StorageBase[] NO_VALUES = new StorageBase[0];
+
+    private String[] keys = NO_KEYS;
+    private StorageBase[] values = NO_VALUES;
+    // Whether the key at the position was stored as a boolean, null until the first one is
+    private boolean[] booleans;
+    // Positions + 1 into the arrays (0 is empty), null while the map is searched linearly
+    private int[] index;
+    // The amount of live entries, and the amount of used slots including tombstones
+    private int size;
+    private int end;
+    // The slot of every position while there are tombstones, built when positions are first used
+    private volatile int[] slotsByPosition;
+    // Counts the compactions, iterators fail when their slots were moved
+    private int compactions;
+
+    CompactTagMap() {
+    }
+
+    /**
+     * Creates a copy of the map, sharing the values.
+     */
+    CompactTagMap(CompactTagMap other) {
+        this.size = other.size;
+        this.end = other.end;
+        this.compactions = other.compactions;
+        if (end == 0) return;
+
+        this.keys = Arrays.copyOf(other.keys, end);
+        this.values = Arrays.copyOf(other.values, end);
+        if (other.booleans != null) this.booleans = Arrays.copyOf(other.booleans, end);
+        if (other.index != null) this.index = other.index.clone();
+    }
+
+    String keyAt(int position) {
+        return keys[slot(position)];
+    }
+
+    StorageBase valueAt(int position) {
+        return values[slot(position)];
+    }
+
+    void setValueAt(int position, StorageBase value) {
+        values[slot(position)] = value;
+    }
+
+    /**
+     * Gets the position of the key, or -1 if it is not in the map.
+     */
+    int indexOf(Object key) {
+        int slot = find(key);
+        if (slot < 0 || end == size) return slot;
+        return Arrays.binarySearch(slots(), slot);
+    }
+
+    private int slot(int position) {
+        if (end == size) return position;
+        if (position < 0 || position >= size) throw new IndexOutOfBoundsException(position);
+        return slots()[position];
+    }
+
+    private int[] slots() {
+        int[] slots = slotsByPosition;
+        if (slots == null) {
+            slots = new int[size];
+            int position = 0;
+            for (int i = 0; i < end; i++) {
+                if (keys[i] != null) slots[position++] = i;
+            }
+            slotsByPosition = slots;
+        }
+        return slots;
+    }
+
+    /**
+     * Gets the slot of the key (which is its position when there are no tombstones), or -1 if it is not in the map.
+     */
+    private int find(Object key) {
+        if (!(key instanceof String)) return -1;
+        int hash = key.hashCode();
+
+        if (index == null) {
+            for (int i = 0; i < end; i++) {
+                String other = keys[i];
+                if (other == key || (other != null && other.hashCode() == hash && other.equals(key))) return i;
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            if (position < 0) return -1;
+
+            String other = keys[position];
+            if (other == key || (other != null && other.hashCode() == hash && other.equals(key))) return position;
+        }
+    }
+
+    /**
+     * Gets the amount of times the slots were moved, see {@link #nextSlot(int)}.
+     */
+    int getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Gets the first slot from the given one that holds an entry, or -1 if there is none. Unlike positions,
+     * slots stay the same when entries are removed (and in a copy of the map) until the map is compacted.
+     */
+    int nextSlot(int slot) {
+        while (slot < end) {
+            if (keys[slot] != null) return slot;
+            slot++;
+        }
+        return -1;
+    }
+
+    String keyAtSlot(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Removes the entry in the slot by leaving a tombstone, positions are only updated once they are used.
+     */
+    StorageBase removeSlot(int slot) {
+        StorageBase previous = values[slot];
+        keys[slot] = null;
+        values[slot] = null;
+        if (booleans != null) booleans[slot] = false;
+        slotsByPosition = null;
+        // Once every entry is gone the slots can be used again right away
+        if (--size == 0) {
+            end = 0;
+            index = null;
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the positions of the keys in the order of {@link String#compareTo(String)}, which
+     * does not depend on the order the keys were added in.
+     */
+    int[] sortedPositions() {
+        String[] sorted = new String[size];
+        for (int i = 0; i < size; i++) sorted[i] = keyAt(i);
+        Arrays.sort(sorted);
+
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) positions[i] = indexOf(sorted[i]);
+        return positions;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the estimated heap of the map object and its arrays, not counting the keys and values.
+     */
+    long heapSize() {
+        long heap = 40;
+        if (keys.length > 0) heap += 2 * NBTSizeTracker.arrayHeap(4, keys.length);
+        if (booleans != null) heap += NBTSizeTracker.arrayHeap(1, booleans.length);
+        if (index != null) heap += NBTSizeTracker.arrayHeap(4, index.length);
+        return heap;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public StorageBase get(Object key) {
+        int position = find(key);
+        return position < 0 ? null : values[position];
+    }
+
+    /**
+     * Stores the value, replacing the value of an existing key in its current position.
+     * This clears the boolean flag of the key.
+     */
+    @Override
+    public StorageBase put(String key, StorageBase value) {
+        Objects.requireNonNull(key, "key");
+        int position = find(key);
+        if (position >= 0) {
+            StorageBase previous = values[position];
+            values[position] = value;
+            if (booleans != null) booleans[position] = false;
+            return previous;
+        }
+
+        if (end == keys.length) {
+            if (end != size) compact(); else grow();
+        }
+        keys[end] = key;
+        values[end] = value;
+        end++;
+        size++;
+        slotsByPosition = null;
+
+        // Tombstones keep their place in the index until it is rebuilt, so they count towards its load
+        if (index != null) {
+            if (end * 2 > index.length) rebuildIndex(); else insertIndex(end - 1);
+        } else if (size > LINEAR_THRESHOLD) {
+            rebuildIndex();
+        }
+        return null;
+    }
+
+    /**
+     * Removes the key, the later keys keep their order.
+     */
+    @Override
+    public StorageBase remove(Object key) {
+        int slot = find(key);
+        return slot < 0 ? null : removeSlot(slot);
+    }
+
+    @Override
+    public void clear() {
+        keys = NO_KEYS;
+        values = NO_VALUES;
+        booleans = null;
+        index = null;
+        size = 0;
+        end = 0;
+        slotsByPosition = null;
+        compactions++;
+    }
+
+    boolean isBoolean(String key) {
+        if (booleans == null) return false;
+        int position = find(key);
+        return position >= 0 && booleans[position];
+    }
+
+    /**
+     * Flags an existing key as stored with a boolean value.
+     */
+    void markBoolean(String key) {
+        int position = find(key);
+        if (position < 0) return;
+
+        if (booleans == null) booleans = new boolean[keys.length];
+        booleans[position] = true;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super StorageBase> action) {
+        for (int i = 0; i < end; i++) {
+            if (keys[i] != null) action.accept(keys[i], values[i]);
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new PositionIterator<>() {
+                    @Override
+                    String get(int slot) {
+                        return keys[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            @Override
+            public boolean remove(Object key) {
+                int slot = find(key);
+                if (slot < 0) return false;
+                removeSlot(slot);
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, StorageBase>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, StorageBase>> iterator() {
+                return new PositionIterator<>() {
+                    @Override
+                    Map.Entry<String, StorageBase> get(int slot) {
+                        return new AbstractMap.SimpleImmutableEntry<>(keys[slot], values[slot]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object instance) {
+        if (instance == this) return true;
+        if (!(instance instanceof CompactTagMap other)) return super.equals(instance);
+        if (other.size != size) return false;
+
+        for (int i = 0; i < end; i++) {
+            if (keys[i] == null) continue;
+            int position = other.find(keys[i]);
+            if (position < 0 || !Objects.equals(values[i], other.values[position])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < end; i++) {
+            if (keys[i] != null) hash += keys[i].hashCode() ^ Objects.hashCode(values[i]);
+        }
+        return hash;
+    }
+
+    private void grow() {
+        int capacity = keys.length == 0 ? 4 : keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        if (booleans != null) booleans = Arrays.copyOf(booleans, capacity);
+    }
+
+    /**
+     * Moves the entries over the tombstones, keeping their order, and rebuilds the index for the new positions.
+     */
+    private void compact() {
+        if (end == size) return;
+
+        int position = 0;
+        for (int i = 0; i < end; i++) {
+            if (keys[i] == null) continue;
+            keys[position] = keys[i];
+            values[position] = values[i];
+            if (booleans != null) booleans[position] = booleans[i];
+            position++;
+        }
+        Arrays.fill(keys, size, end, null);
+        Arrays.fill(values, size, end, null);
+        if (booleans != null) Arrays.fill(booleans, size, end, false);
+        end = size;
+        slotsByPosition = null;
+        compactions++;
+
+        if (size > LINEAR_THRESHOLD) rebuildIndex(); else index = null;
+    }
+
+    private void rebuildIndex() {
+        int capacity = 16;
+        while (capacity < end * 2) capacity <<= 1;
+
+        index = new int[capacity];
+        for (int i = 0; i < end; i++) {
+            if (keys[i] != null) insertIndex(i);
+        }
+    }
+
+    private void insertIndex(int position) {
+        int mask = index.length - 1;
+        int slot = spread(keys[position].hashCode()) & mask;
+        while (index[slot] != 0) slot = (slot + 1) & mask;
+        index[slot] = position + 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Iterates by slot, skipping tombstones, so {@link #remove()} does not move the cursor.
+     */
+    private abstract class PositionIterator<T> implements Iterator<T> {
+        private final int expectedCompactions = compactions;
+        private int next = nextSlot(0);
+        private int last = -1;
+
+        abstract T get(int slot);
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public T next() {
+            if (compactions != expectedCompactions) throw new ConcurrentModificationException();
+            if (next < 0) throw new NoSuchElementException();
+            last = next;
+            next = nextSlot(next + 1);
+            return get(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) throw new IllegalStateException();
+            if (compactions != expectedCompactions) throw new ConcurrentModificationException();
+            removeSlot(last);
+            last = -1;
+        }
+    }
+}
@@ -1,30 +1,46 @@
 package org.bsdevelopment.nbt;
 
+import org.bsdevelopment.nbt.codec.NBTCodec;
+import org.bsdevelopment.nbt.codec.NBTCodecs;
+import org.bsdevelopment.nbt.codec.SerializerContext;
 import org.bsdevelopment.nbt.other.NBTSizeTracker;
 
 import java.io.*;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class CompressedStreamTools {
     /**
-     * Load the gzipped compound from the inputstream.
+     * Load the compressed compound from the inputstream, the codec is detected from the header
+     * (legacy gzip and uncompressed data without a header are also accepted).
      */
     public static StorageBase readCompressedBase(InputStream is) throws IOException {
-        DataInputStream datainputstream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is)));
-        StorageBase base;
+        return readCompressedBase(is, NBTSizeTracker.INFINITE);
+    }
 
-        try {
-            base = read(datainputstream, NBTSizeTracker.INFINITE);
-        } finally {
-            datainputstream.close();
+    /**
+     * Load the compressed compound from the inputstream within the limits of the tracker, which counts the
+     * uncompressed data. Use this for data from untrusted sources.
+     *
+     * @throws org.bsdevelopment.nbt.other.NBTSizeException If the data goes over the limits of the tracker.
+     */
+    public static StorageBase readCompressedBase(InputStream is, NBTSizeTracker sizeTracker) throws IOException {
+        // The pooled streams are not closed, as that would make them unusable for the next read
+        try (is; SerializerContext context = SerializerContext.acquire()) {
+            return read(context.dataInput(decompress(is, context)), sizeTracker);
         }
-
-        return base;
     }
 
     public static StorageTagCompound readCompressed(InputStream is) throws IOException {
-        StorageBase nbtbase = readCompressedBase(is);
+        return readCompressed(is, NBTSizeTracker.INFINITE);
+    }
+
+    /**
+     * Load the compressed compound from the inputstream within the limits of the tracker, see {@link #readCompressedBase(InputStream, NBTSizeTracker)}.
+     */
+    public static StorageTagCompound readCompressed(InputStream is, NBTSizeTracker sizeTracker) throws IOException {
+        StorageBase nbtbase = readCompressedBase(is, sizeTracker);
 
         if (nbtbase instanceof StorageTagCompound) {
             return (StorageTagCompound) nbtbase;
@@ -37,12 +53,140 @@ public class CompressedStreamTools {
      * Write the compound, gzipped, to the outputstream.
      */
     public static void writeCompressed(StorageBase compound, OutputStream outputStream) throws IOException {
-        DataOutputStream dataoutputstream = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(outputStream)));
+        writeCompressed(compound, outputStream, NBTCodecs.GZIP);
+    }
+
+    /**
+     * Write the compound to the outputstream, compressed with the given codec.
+     */
+    public static void writeCompressed(StorageBase compound, OutputStream outputStream, NBTCodec codec) throws IOException {
+        try (SerializerContext context = SerializerContext.acquire()) {
+            writeTag(compound, context.dataOutput());
+
+            if (codec.writesHeader()) {
+                outputStream.write(NBTCodecs.MAGIC);
+                outputStream.write(codec.getId());
+            }
+            codec.compress(context.getOutputBuffer(), 0, context.getOutputSize(), outputStream, context);
+        }
+    }
+
+    /**
+     * Write the compound to the outputstream, compressed with the given codec.
+     *
+     * @param sortKeys Whether compound keys are written in alphabetical order, see {@link NBTBufferWriter#setSortKeys(boolean)}.
+     */
+    public static void writeCompressed(StorageBase compound, OutputStream outputStream, NBTCodec codec, boolean sortKeys) throws IOException {
+        write(compound, outputStream, codec, sortKeys, NBTSizeTracker.INFINITE, false);
+    }
+
+    /**
+     * Write the compound to the outputstream, compressed with the given codec, if the uncompressed data is within the
+     * limits of the tracker. Nothing is written to the outputstream when it is not.
+     *
+     * @throws org.bsdevelopment.nbt.other.NBTSizeException If the data goes over the limits of the tracker.
+     */
+    public static void writeCompressed(StorageBase compound, OutputStream outputStream, NBTCodec codec, boolean sortKeys, NBTSizeTracker sizeTracker) throws IOException {
+        write(compound, outputStream, codec, sortKeys, sizeTracker, false);
+    }
 
-        try {
-            writeTag(compound, dataoutputstream);
-        } finally {
-            dataoutputstream.close();
+    /**
+     * Same as {@link #writeCompressed(StorageBase, OutputStream, NBTCodec, boolean, NBTSizeTracker)}, and also hashes
+     * the uncompressed data.
+     *
+     * @return The digest of the uncompressed data, which equals {@link NBTDigest#of(StorageBase)} when the keys are sorted.
+     */
+    public static NBTDigest writeCompressedDigest(StorageBase compound, OutputStream outputStream, NBTCodec codec, boolean sortKeys, NBTSizeTracker sizeTracker) throws IOException {
+        return write(compound, outputStream, codec, sortKeys, sizeTracker, true);
+    }
+
+    private static NBTDigest write(StorageBase compound, OutputStream outputStream, NBTCodec codec, boolean sortKeys, NBTSizeTracker sizeTracker, boolean digest) throws IOException {
+        try (SerializerContext context = SerializerContext.acquire()) {
+            byte[] data;
+            int length;
+            if (sortKeys) {
+                ByteBuffer buffer = writeBuffer(compound, true);
+                data = buffer.array();
+                length = buffer.limit();
+            } else {
+                writeTag(compound, context.dataOutput());
+                data = context.getOutputBuffer();
+                length = context.getOutputSize();
+            }
+            sizeTracker.account(length, 0);
+
+            if (codec.writesHeader()) {
+                outputStream.write(NBTCodecs.MAGIC);
+                outputStream.write(codec.getId());
+            }
+            NBTDigest result = digest ? NBTDigest.of(data, 0, length) : null;
+            codec.compress(data, 0, length, outputStream, context);
+            return result;
+        }
+    }
+
+    /**
+     * Write the tag to the outputstream in the {@link NBTSchemaFormat schema format}, compressed with the given codec.
+     * It is read back with {@link #readCompressed(InputStream)} the same as classic NBT.
+     */
+    public static void writeSchemaCompressed(StorageBase tag, OutputStream outputStream, NBTCodec codec) throws IOException {
+        try (SerializerContext context = SerializerContext.acquire()) {
+            NBTSchemaFormat.write(tag, context.dataOutput());
+
+            if (codec.writesHeader()) {
+                outputStream.write(NBTCodecs.MAGIC);
+                outputStream.write(codec.getId());
+            }
+            codec.compress(context.getOutputBuffer(), 0, context.getOutputSize(), outputStream, context);
+        }
+    }
+
+    /**
+     * Reads an uncompressed compound from the given buffer, starting at its position.
+     * The position of the buffer is not modified.
+     */
+    public static StorageTagCompound read(ByteBuffer buffer) throws IOException {
+        return new NBTBufferReader(buffer).readCompound();
+    }
+
+    /**
+     * Memory-maps the given uncompressed file and reads the compound from it.
+     * Files written with {@link NBTCodecs#NONE} are accepted as well.
+     */
+    public static StorageTagCompound readMapped(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((buffer.remaining() >= 3) && (buffer.get(0) == NBTCodecs.MAGIC[0]) && (buffer.get(1) == NBTCodecs.MAGIC[1])) {
+                if (buffer.get(2) != NBTCodecs.NONE.getId()) throw new IOException("File is compressed, use readCompressed instead");
+                buffer.position(3);
+            }
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Writes the tag, uncompressed, into a new heap buffer which is ready to be read.
+     */
+    public static ByteBuffer writeBuffer(StorageBase tag) throws IOException {
+        return writeBuffer(tag, false);
+    }
+
+    /**
+     * Writes the tag, uncompressed, into a new heap buffer which is ready to be read.
+     *
+     * @param sortKeys Whether compound keys are written in alphabetical order, see {@link NBTBufferWriter#setSortKeys(boolean)}.
+     */
+    public static ByteBuffer writeBuffer(StorageBase tag, boolean sortKeys) throws IOException {
+        return new NBTBufferWriter().setSortKeys(sortKeys).writeRoot(tag).getBuffer();
+    }
+
+    /**
+     * Writes the tag, uncompressed, to the given file so it can later be read with {@link #readMapped(File)}.
+     */
+    public static void writeUncompressed(StorageBase tag, File file) throws IOException {
+        ByteBuffer buffer = writeBuffer(tag);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
         }
     }
 
@@ -65,6 +209,14 @@ public class CompressedStreamTools {
         writeTag(compound, output);
     }
 
+    /**
+     * Writes the tag with its compound keys in alphabetical order, so equal tags always result in the same bytes.
+     */
+    public static void writeSorted(StorageBase tag, DataOutput output) throws IOException {
+        ByteBuffer buffer = writeBuffer(tag, true);
+        output.write(buffer.array(), 0, buffer.limit());
+    }
+
     public static void writeTag(StorageBase tag, DataOutput output) throws IOException {
         output.writeByte(tag.getId());
 
@@ -74,14 +226,46 @@ public class CompressedStreamTools {
         }
     }
 
+    /**
+     * Wraps the stream with the codec found in its header.
+     */
+    private static InputStream decompress(InputStream is, SerializerContext context) throws IOException {
+        BufferedInputStream stream = context.bufferedInput(is);
+        stream.mark(2);
+        int first = stream.read();
+        int second = stream.read();
+
+        if ((first == 0x1F) && (second == 0x8B)) {
+            stream.reset();
+            return NBTCodecs.GZIP.decompress(stream, context);
+        }
+
+        if (((byte) first == NBTCodecs.MAGIC[0]) && ((byte) second == NBTCodecs.MAGIC[1])) {
+            int id = stream.read();
+            NBTCodec codec = (id == -1) ? null : NBTCodecs.getCodec((byte) id);
+            if (codec == null) throw new IOException("Unknown NBT codec id " + id);
+            return codec.decompress(stream, context);
+        }
+
+        // No header, so it can only be uncompressed data, which starts with a tag type or the schema marker
+        if ((first < 0 || first > 12) && ((byte) first != NBTSchemaFormat.MARKER)) {
+            throw new IOException("Not NBT data, unknown header " + Integer.toHexString(first) + " " + Integer.toHexString(second));
+        }
+        stream.reset();
+        return stream;
+    }
+
     private static StorageBase read(DataInput input, int depth, NBTSizeTracker accounter) throws IOException {
         byte b0 = input.readByte();
 
-        if (b0 == 0) {
+        if (b0 == NBTSchemaFormat.MARKER) {
+            return NBTSchemaFormat.readAfterMarker(input, accounter);
+        } else if (b0 == 0) {
             return new StorageTagEnd();
         } else {
-            input.readUTF();
+            accounter.accountString(input.readUTF(), 1, 0);
             StorageBase nbtbase = StorageBase.createNewByType(b0);
+            if (nbtbase == null) throw new IOException("Unknown root tag type " + b0);
 
             try {
                 nbtbase.read(input, depth, accounter);
@@ -1,27 +1,45 @@
 package org.bsdevelopment.nbt;
 
-import com.google.common.collect.Lists;
 import org.bsdevelopment.nbt.other.NBTException;
 
-import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
+/**
+ * Parses SNBT (the string format used by commands and configs) into tags.
+ * <p>
+ * The input is read in a single pass: unquoted values are classified by their suffix while scanning them,
+ * and numbers are parsed straight from the input without creating substrings or using regular expressions.
+ * Errors are reported as an {@link NBTException} with the position they were found at.
+ */
 public class JsonToNBT {
-    private static final Pattern DOUBLE_PATTERN2 = Pattern.compile("[-+]?(?:[0-9]+[.]|[0-9]*[.][0-9]+)(?:e[-+]?[0-9]+)?", 2);
-    private static final Pattern DOUBLE_PATTERN = Pattern.compile("[-+]?(?:[0-9]+[.]?|[0-9]*[.][0-9]+)(?:e[-+]?[0-9]+)?d", 2);
-    private static final Pattern FLOAT_PATTERN = Pattern.compile("[-+]?(?:[0-9]+[.]?|[0-9]*[.][0-9]+)(?:e[-+]?[0-9]+)?f", 2);
-    private static final Pattern BYTE_PATTERN = Pattern.compile("[-+]?(?:0|[1-9][0-9]*)b", 2);
-    private static final Pattern LONG_PATTERN = Pattern.compile("[-+]?(?:0|[1-9][0-9]*)l", 2);
-    private static final Pattern SHORT_PATTERN = Pattern.compile("[-+]?(?:0|[1-9][0-9]*)s", 2);
-    private static final Pattern INT_PATTERN = Pattern.compile("[-+]?(?:0|[1-9][0-9]*)");
-    private final StringReader reader;
-
-    private JsonToNBT(StringReader reader) {
-        this.reader = reader;
+    private static final boolean[] UNQUOTED = new boolean[128];
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    static {
+        for (char c = '0'; c <= '9'; c++) UNQUOTED[c] = true;
+        for (char c = 'a'; c <= 'z'; c++) UNQUOTED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNQUOTED[c] = true;
+        UNQUOTED['_'] = UNQUOTED['-'] = UNQUOTED['.'] = UNQUOTED['+'] = true;
+    }
+
+    private final String input;
+    private final int length;
+    private int cursor;
+
+    // The result of the last classify() call, to avoid creating a tag for array elements
+    private long integerValue;
+    private double decimalValue;
+
+    private JsonToNBT(String input) {
+        this.input = input;
+        this.length = input.length();
     }
 
     public static JsonToNBT parse(String string) {
-        return new JsonToNBT(new StringReader(string));
+        return new JsonToNBT(string);
     }
 
     public static StorageTagCompound getTagFromJson(String string) throws NBTException {
@@ -30,128 +48,241 @@ public class JsonToNBT {
 
     public StorageTagCompound toCompound() throws NBTException {
         StorageTagCompound compoundTag = this.parseCompoundTag();
-        this.reader.skipWhitespace();
-        if (this.reader.canRead()) {
-            throw this.reader.throwError("Trailing data found");
-        } else {
-            return compoundTag;
-        }
+        this.skipWhitespace();
+        if (this.cursor < this.length) throw this.error("Trailing data found");
+        return compoundTag;
     }
 
     public StorageTagList toList() throws NBTException {
-        StorageTagList compoundTag = (StorageTagList) this.list();
-        this.reader.skipWhitespace();
-        if (this.reader.canRead()) {
-            throw this.reader.throwError("Trailing data found");
-        } else {
-            return compoundTag;
+        StorageTagList listTag = (StorageTagList) this.list();
+        this.skipWhitespace();
+        if (this.cursor < this.length) throw this.error("Trailing data found");
+        return listTag;
+    }
+
+    protected StorageBase parseTagPrimitive() throws NBTException {
+        this.skipWhitespace();
+        if (this.cursor < this.length && isQuote(this.input.charAt(this.cursor))) {
+            return new StorageTagString(this.readQuotedString());
         }
+
+        int start = this.cursor;
+        int end = this.skipUnquoted();
+        if (start == end) throw this.error("Expected value");
+        return this.createPrimitive(start, end);
     }
 
-    private String readString() throws NBTException {
-        this.reader.skipWhitespace();
-        if (!this.reader.canRead()) {
-            throw this.reader.throwError("Expected key");
-        } else {
-            return this.reader.readString();
+    private StorageBase createPrimitive(int start, int end) {
+        switch (this.classify(start, end)) {
+            case 1:
+                return new StorageTagByte((byte) this.integerValue);
+            case 2:
+                return new StorageTagShort((short) this.integerValue);
+            case 3:
+                return new StorageTagInt((int) this.integerValue);
+            case 4:
+                return new StorageTagLong(this.integerValue);
+            case 5:
+                return new StorageTagFloat((float) this.decimalValue);
+            case 6:
+                return new StorageTagDouble(this.decimalValue);
+            default:
+                return new StorageTagString(this.input.substring(start, end));
         }
     }
 
-    protected StorageBase parseTagPrimitive() throws NBTException {
-        this.reader.skipWhitespace();
-        int i = this.reader.getCursor();
-        if (StringReader.isQuotedStringStart(this.reader.peek())) {
-            return new StorageTagString(this.reader.readQuotedString());
-        } else {
-            String string = this.reader.readUnquotedString();
-            if (string.isEmpty()) {
-                this.reader.setCursor(i);
-                throw this.reader.throwError("Expected value");
+    /**
+     * Works out the type of the unquoted value between start and end, storing its value in
+     * {@link #integerValue} or {@link #decimalValue}.
+     *
+     * @return The id of the tag type, or 8 (string) if the value is not a (valid) number.
+     */
+    private byte classify(int start, int end) {
+        String input = this.input;
+        int length = end - start;
+
+        if (length == 4 && input.regionMatches(true, start, "true", 0, 4)) {
+            this.integerValue = 1;
+            return 1;
+        }
+        if (length == 5 && input.regionMatches(true, start, "false", 0, 5)) {
+            this.integerValue = 0;
+            return 1;
+        }
+
+        char suffix = Character.toLowerCase(input.charAt(end - 1));
+        boolean hasSuffix = suffix == 'b' || suffix == 's' || suffix == 'l' || suffix == 'f' || suffix == 'd';
+        int numberEnd = hasSuffix ? end - 1 : end;
+
+        int position = start;
+        boolean negative = false;
+        if (position < numberEnd && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+            negative = input.charAt(position) == '-';
+            position++;
+        }
+
+        // The digits before and after the dot are collected in one significand, scale is the power of ten it is multiplied by
+        int integerStart = position;
+        long significand = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean truncated = false;
+        while (position < numberEnd && isDigit(input.charAt(position))) {
+            int digit = input.charAt(position++) - '0';
+            if (significantDigits < 18) {
+                significand = significand * 10 + digit;
+                if (significand != 0) significantDigits++;
             } else {
-                return this.parsePrimitive(string);
+                scale++;
+                truncated |= digit != 0;
             }
         }
-    }
-
-    private StorageBase parsePrimitive(String value) {
-        try {
-            if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
-                return new StorageTagByte((byte) (Boolean.getBoolean(value) ? 1 : 0));
+        int integerDigits = position - integerStart;
+
+        boolean dot = false;
+        int fractionDigits = 0;
+        if (position < numberEnd && input.charAt(position) == '.') {
+            dot = true;
+            int fractionStart = ++position;
+            while (position < numberEnd && isDigit(input.charAt(position))) {
+                int digit = input.charAt(position++) - '0';
+                if (significantDigits < 18) {
+                    significand = significand * 10 + digit;
+                    if (significand != 0) significantDigits++;
+                    scale--;
+                } else {
+                    truncated |= digit != 0;
+                }
             }
-
-            if (FLOAT_PATTERN.matcher(value).matches()) {
-                return new StorageTagFloat(Float.parseFloat(value.substring(0, value.length() - 1)));
+            fractionDigits = position - fractionStart;
+        }
+        if (integerDigits + fractionDigits == 0) return 8;
+
+        boolean exponent = false;
+        int exponentValue = 0;
+        if (position < numberEnd && (input.charAt(position) == 'e' || input.charAt(position) == 'E')) {
+            exponent = true;
+            position++;
+            boolean negativeExponent = false;
+            if (position < numberEnd && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+                negativeExponent = input.charAt(position) == '-';
+                position++;
             }
-
-            if (BYTE_PATTERN.matcher(value).matches()) {
-                return new StorageTagByte(Byte.parseByte(value.substring(0, value.length() - 1)));
+            int exponentStart = position;
+            while (position < numberEnd && isDigit(input.charAt(position))) {
+                if (exponentValue < 100000) exponentValue = exponentValue * 10 + (input.charAt(position) - '0');
+                position++;
             }
+            if (position == exponentStart) return 8;
+            if (negativeExponent) exponentValue = -exponentValue;
+        }
+        if (position != numberEnd) return 8;
+
+        // Numbers that have more digits than fit in the significand are left to the JDK parser
+        if (truncated) significantDigits = Integer.MAX_VALUE;
+        scale += exponentValue;
+
+        boolean integer = !dot && !exponent && (integerDigits == 1 || input.charAt(integerStart) != '0');
+        if (!hasSuffix) {
+            if (integer) return this.parseInteger(integerStart, numberEnd, negative, Integer.MIN_VALUE, Integer.MAX_VALUE) ? (byte) 3 : 8;
+            // A decimal without suffix needs a dot, "1e5" stays a string
+            if (!dot) return 8;
+            this.decimalValue = this.parseDecimal(start, end, negative, significand, significantDigits, scale);
+            return 6;
+        }
 
-            if (LONG_PATTERN.matcher(value).matches()) {
-                return new StorageTagLong(Long.parseLong(value.substring(0, value.length() - 1)));
-            }
+        switch (suffix) {
+            case 'b':
+                return integer && this.parseInteger(integerStart, numberEnd, negative, Byte.MIN_VALUE, Byte.MAX_VALUE) ? (byte) 1 : 8;
+            case 's':
+                return integer && this.parseInteger(integerStart, numberEnd, negative, Short.MIN_VALUE, Short.MAX_VALUE) ? (byte) 2 : 8;
+            case 'l':
+                return integer && this.parseInteger(integerStart, numberEnd, negative, Long.MIN_VALUE, Long.MAX_VALUE) ? (byte) 4 : 8;
+            case 'f':
+                this.decimalValue = this.parseFloat(start, numberEnd, negative, significand, significantDigits, scale);
+                return 5;
+            default:
+                this.decimalValue = this.parseDecimal(start, numberEnd, negative, significand, significantDigits, scale);
+                return 6;
+        }
+    }
 
-            if (SHORT_PATTERN.matcher(value).matches()) {
-                return new StorageTagShort(Short.parseShort(value.substring(0, value.length() - 1)));
-            }
+    /**
+     * Parses the digits between start and end into {@link #integerValue}.
+     *
+     * @return false if the value is outside the given range.
+     */
+    private boolean parseInteger(int start, int end, boolean negative, long min, long max) {
+        if (end - start > 19) return false;
+
+        // Accumulate negatively, so Long.MIN_VALUE can be parsed as well
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = this.input.charAt(i) - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10) return false;
+            value = value * 10 - digit;
+        }
 
-            if (INT_PATTERN.matcher(value).matches()) {
-                return new StorageTagInt(Integer.parseInt(value));
-            }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) return false;
+            value = -value;
+        }
+        if (value < min || value > max) return false;
 
-            if (DOUBLE_PATTERN.matcher(value).matches()) {
-                return new StorageTagDouble(Double.parseDouble(value.substring(0, value.length() - 1)));
-            }
+        this.integerValue = value;
+        return true;
+    }
 
-            if (DOUBLE_PATTERN2.matcher(value).matches()) { //Without the d (EG: 1.0d -> 1.0)
-                return new StorageTagDouble(Double.parseDouble(value));
-            }
-        } catch (NumberFormatException ignored) {
+    private double parseDecimal(int start, int end, boolean negative, long significand, int digits, int scale) {
+        // Both the significand and the power of ten are exact doubles, so a single multiplication/division is correctly rounded
+        if (digits <= 15 && scale >= -22 && scale <= 22) {
+            double value = (double) significand;
+            value = scale < 0 ? value / POWERS_OF_TEN[-scale] : value * POWERS_OF_TEN[scale];
+            return negative ? -value : value;
         }
+        return Double.parseDouble(this.input.substring(start, end));
+    }
 
-        return new StorageTagString(value);
+    private double parseFloat(int start, int end, boolean negative, long significand, int digits, int scale) {
+        // Same as parseDecimal, using the range that is exact for floats
+        if (digits <= 7 && scale >= -10 && scale <= 10) {
+            float value = (float) significand;
+            value = scale < 0 ? value / (float) POWERS_OF_TEN[-scale] : value * (float) POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        return Float.parseFloat(this.input.substring(start, end));
     }
 
     private StorageBase parseTag() throws NBTException {
-        this.reader.skipWhitespace();
-        if (!this.reader.canRead()) {
-            throw this.reader.throwError("Expected value");
-        } else {
-            char c = this.reader.peek();
-            if (c == '{') {
-                return this.parseCompoundTag();
-            } else {
-                return c == '[' ? this.parseTagArray() : this.parseTagPrimitive();
-            }
-        }
+        this.skipWhitespace();
+        if (this.cursor >= this.length) throw this.error("Expected value");
+
+        char c = this.input.charAt(this.cursor);
+        if (c == '{') return this.parseCompoundTag();
+        return c == '[' ? this.parseTagArray() : this.parseTagPrimitive();
     }
 
     private StorageBase parseTagArray() throws NBTException {
-        return this.reader.canRead(3) && !StringReader.isQuotedStringStart(this.reader.peek(1)) && this.reader.peek(2) == ';' ? this.arrays() : this.list();
+        return this.cursor + 3 <= this.length && !isQuote(this.input.charAt(this.cursor + 1)) && this.input.charAt(this.cursor + 2) == ';' ? this.arrays() : this.list();
     }
 
     private StorageTagCompound parseCompoundTag() throws NBTException {
         this.expect('{');
         StorageTagCompound compoundTag = new StorageTagCompound();
-        this.reader.skipWhitespace();
-
-        while (this.reader.canRead() && this.reader.peek() != '}') {
-            int i = this.reader.getCursor();
-            String string = this.readString();
-            if (string.isEmpty()) {
-                this.reader.setCursor(i);
-                throw this.reader.throwError("Expected non-empty key");
+        this.skipWhitespace();
+
+        while (this.cursor < this.length && this.input.charAt(this.cursor) != '}') {
+            int i = this.cursor;
+            String key = this.readKey();
+            if (key.isEmpty()) {
+                this.cursor = i;
+                throw this.error("Expected non-empty key");
             }
 
             this.expect(':');
-            compoundTag.setTag(string, this.parseTag());
-            if (!this.readComma()) {
-                break;
-            }
-
-            if (!this.reader.canRead()) {
-                throw this.reader.throwError("Expected key");
-            }
+            compoundTag.setTag(key, this.parseTag());
+            if (!this.readComma()) break;
+            if (this.cursor >= this.length) throw this.error("Expected key");
         }
 
         this.expect('}');
@@ -160,110 +291,183 @@ public class JsonToNBT {
 
     private StorageBase list() throws NBTException {
         this.expect('[');
-        this.reader.skipWhitespace();
-        if (!this.reader.canRead()) {
-            throw this.reader.throwError("Expected value");
-        } else {
-            StorageTagList listTag = new StorageTagList();
-            int reader = -1;
-
-            while (this.reader.peek() != ']') {
-                int i = this.reader.getCursor();
-                StorageBase tag = this.parseTag();
-                int reader2 = tag.getId();
-                if (reader == -1) {
-                    reader = reader2;
-                } else if (reader2 != reader) {
-                    this.reader.setCursor(i);
-                    throw this.reader.throwError("Unable to insert " + StorageBase.getName(reader2) + " into ListTag of type " + StorageBase.getName(reader));
-                }
-
-                listTag.appendTag(tag);
-                if (!this.readComma()) {
-                    break;
-                }
-
-                if (!this.reader.canRead()) {
-                    throw this.reader.throwError("Expected value");
-                }
+        this.skipWhitespace();
+        if (this.cursor >= this.length) throw this.error("Expected value");
+
+        StorageTagList listTag = new StorageTagList();
+        int type = -1;
+
+        while (this.input.charAt(this.cursor) != ']') {
+            int i = this.cursor;
+            StorageBase tag = this.parseTag();
+            int tagType = tag.getId();
+            if (type == -1) {
+                type = tagType;
+            } else if (tagType != type) {
+                this.cursor = i;
+                throw this.error("Unable to insert " + StorageBase.getName(tagType) + " into ListTag of type " + StorageBase.getName(type));
             }
 
-            this.expect(']');
-            return listTag;
+            listTag.appendTag(tag);
+            if (!this.readComma()) break;
+            if (this.cursor >= this.length) throw this.error("Expected value");
         }
+
+        this.expect(']');
+        return listTag;
     }
 
     private StorageBase arrays() throws NBTException {
         this.expect('[');
-        int i = this.reader.getCursor();
-        char c = this.reader.read();
-        this.reader.read();
-        this.reader.skipWhitespace();
-        if (!this.reader.canRead()) {
-            throw this.reader.throwError("Expected value");
-        } else if (c == 'B') {
-            return new StorageTagByteArray(this.readArray((byte) 7, (byte) 1));
+        int i = this.cursor;
+        char c = this.input.charAt(this.cursor);
+        this.cursor += 2;
+        this.skipWhitespace();
+        if (this.cursor >= this.length) throw this.error("Expected value");
+
+        if (c == 'B') {
+            long[] values = this.readArray((byte) 7, (byte) 1);
+            byte[] bytes = new byte[values.length];
+            for (int j = 0; j < values.length; j++) bytes[j] = (byte) values[j];
+            return new StorageTagByteArray(bytes);
         } else if (c == 'L') {
             return new StorageTagLongArray(this.readArray((byte) 12, (byte) 4));
         } else if (c == 'I') {
-            return new StorageTagIntArray(this.readArray((byte) 11, (byte) 3));
-        } else {
-            this.reader.setCursor(i);
-            throw this.reader.throwError("Invalid array type '" + c + "' found");
+            long[] values = this.readArray((byte) 11, (byte) 3);
+            int[] ints = new int[values.length];
+            for (int j = 0; j < values.length; j++) ints[j] = (int) values[j];
+            return new StorageTagIntArray(ints);
         }
+
+        this.cursor = i;
+        throw this.error("Invalid array type '" + c + "' found");
     }
 
-    private <T extends Number> List<T> readArray(byte b, byte b1) throws NBTException {
-        List<T> list = Lists.newArrayList();
+    private long[] readArray(byte arrayType, byte elementType) throws NBTException {
+        long[] values = new long[16];
+        int size = 0;
+
+        while (this.cursor < this.length && this.input.charAt(this.cursor) != ']') {
+            this.skipWhitespace();
+            int start = this.cursor;
+            byte type = 8;
+            if (this.cursor < this.length && !isQuote(this.input.charAt(this.cursor))) {
+                int end = this.skipUnquoted();
+                if (start == end) throw this.error("Expected value");
+                type = this.classify(start, end);
+            } else if (this.cursor < this.length) {
+                this.readQuotedString();
+            }
 
-        while (true) {
-            if (this.reader.peek() != ']') {
-                int i = this.reader.getCursor();
-                StorageBase tag = this.parseTag();
-                int reader = tag.getId();
+            if (type != elementType) {
+                this.cursor = start;
+                throw this.error("Unable to insert " + StorageBase.getName(type) + " into " + StorageBase.getName(arrayType));
+            }
 
-                if (reader != b1) {
-                    throw this.reader.throwError("Unable to insert " + StorageBase.getName(i) + " into " + StorageBase.getName(b));
-                }
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = this.integerValue;
 
-                if (b1 == 1) {
-                    list.add((T) Byte.valueOf(((StoragePrimitive) tag).getByte()));
-                } else if (b1 == 4) {
-                    list.add((T) Long.valueOf(((StoragePrimitive) tag).getLong()));
-                } else {
-                    list.add((T) Integer.valueOf(((StoragePrimitive) tag).getInt()));
-                }
+            if (!this.readComma()) break;
+            if (this.cursor >= this.length) throw this.error("Expected value");
+        }
 
-                if (this.readComma()) {
-                    if (!this.reader.canRead()) {
-                        throw this.reader.throwError("Expected value");
-                    }
-                    continue;
-                }
+        this.expect(']');
+        return Arrays.copyOf(values, size);
+    }
+
+    private String readKey() throws NBTException {
+        this.skipWhitespace();
+        if (this.cursor >= this.length) throw this.error("Expected key");
+        if (isQuote(this.input.charAt(this.cursor))) return this.readQuotedString();
+
+        int start = this.cursor;
+        return this.input.substring(start, this.skipUnquoted());
+    }
+
+    private String readQuotedString() throws NBTException {
+        char quote = this.input.charAt(this.cursor++);
+        int start = this.cursor;
+
+        // Only build the string when it contains escapes
+        int end = start;
+        while (end < this.length) {
+            char c = this.input.charAt(end);
+            if (c == quote) {
+                this.cursor = end + 1;
+                return this.input.substring(start, end);
             }
+            if (c == '\\') break;
+            end++;
+        }
 
-            this.expect(']');
-            return list;
+        StringBuilder result = new StringBuilder(end - start + 16).append(this.input, start, end);
+        this.cursor = end;
+        while (this.cursor < this.length) {
+            char c = this.input.charAt(this.cursor++);
+            if (c == '\\') {
+                if (this.cursor >= this.length) break;
+                char escaped = this.input.charAt(this.cursor++);
+                if (escaped != quote && escaped != '\\') {
+                    this.cursor--;
+                    throw this.error("Invalid escape of '" + escaped + "'");
+                }
+                result.append(escaped);
+            } else if (c == quote) {
+                return result.toString();
+            } else {
+                result.append(c);
+            }
         }
+
+        throw this.error("Unclosed quoted string");
     }
 
-    private void expect(char c) throws NBTException {
-        this.reader.skipWhitespace();
-        this.reader.expect(c);
+    /**
+     * Moves the cursor past the unquoted characters.
+     *
+     * @return The new cursor position.
+     */
+    private int skipUnquoted() {
+        while (this.cursor < this.length && isUnquoted(this.input.charAt(this.cursor))) this.cursor++;
+        return this.cursor;
+    }
+
+    private void skipWhitespace() {
+        while (this.cursor < this.length) {
+            if (!Character.isWhitespace(this.input.charAt(this.cursor))) return;
+            this.cursor++;
+        }
     }
 
-    private boolean checkChar(char c) {
-        return c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c == '_' || c == '-' || c == '.' || c == '+';
+    private void expect(char c) throws NBTException {
+        this.skipWhitespace();
+        if (this.cursor >= this.length || this.input.charAt(this.cursor) != c) throw this.error("Expected '" + c + "'");
+        this.cursor++;
     }
 
     private boolean readComma() {
-        this.reader.skipWhitespace();
-        if (this.reader.canRead() && this.reader.peek() == ',') {
-            this.reader.skip();
-            this.reader.skipWhitespace();
+        this.skipWhitespace();
+        if (this.cursor < this.length && this.input.charAt(this.cursor) == ',') {
+            this.cursor++;
+            this.skipWhitespace();
             return true;
-        } else {
-            return false;
         }
+        return false;
+    }
+
+    private NBTException error(String message) {
+        return new NBTException(message, this.input, this.cursor);
+    }
+
+    private static boolean isUnquoted(char c) {
+        return c < 128 && UNQUOTED[c];
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '"' || c == '\'';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,477 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTSizeTracker;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes uncompressed NBT data directly from a {@link ByteBuffer} (heap, direct or memory-mapped)
+ * using absolute gets, without going through a {@link java.io.DataInputStream}.
+ * <p>
+ * The position and limit of the given buffer are never modified. Arrays can also be
+ * sliced straight out of the buffer using {@link #sliceByteArray(String...)},
+ * {@link #sliceIntArray(String...)} and {@link #sliceLongArray(String...)} without copying them,
+ * and {@link NBTPathSet} decodes only the tags its paths point at.
+ */
+public class NBTBufferReader {
+    private final ByteBuffer buffer;
+    private final NBTSizeTracker sizeTracker;
+    private int position;
+
+    public NBTBufferReader(ByteBuffer buffer) {
+        this(buffer, NBTSizeTracker.INFINITE);
+    }
+
+    public NBTBufferReader(ByteBuffer buffer, NBTSizeTracker sizeTracker) {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.sizeTracker = sizeTracker;
+        this.position = buffer.position();
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Reads the root tag (type byte, empty name and payload) at the current position.
+     */
+    public StorageBase readRoot() throws IOException {
+        try {
+            byte id = readByte();
+            if (id == 0) return new StorageTagEnd();
+
+            int start = position;
+            skipUTF();
+            sizeTracker.account(1 + position - start, 0);
+            return readPayload(id, 0);
+        } catch (IndexOutOfBoundsException e) {
+            throw truncated(e);
+        }
+    }
+
+    /**
+     * Reads the root tag at the current position, which must be a compound.
+     */
+    public StorageTagCompound readCompound() throws IOException {
+        StorageBase base = readRoot();
+        if (base instanceof StorageTagCompound compound) return compound;
+        throw new IOException("Root tag must be a named compound tag");
+    }
+
+    /**
+     * Finds the byte array at the given key path (starting at the root compound) and
+     * returns a read-only view of it, or null if there is no byte array at that path.
+     */
+    public ByteBuffer sliceByteArray(String... path) throws IOException {
+        int start = seek((byte) 7, path);
+        if (start < 0) return null;
+        return slice(start + 4, arrayLength(start, 1));
+    }
+
+    /**
+     * Finds the int array at the given key path (starting at the root compound) and
+     * returns a read-only view of it, or null if there is no int array at that path.
+     */
+    public IntBuffer sliceIntArray(String... path) throws IOException {
+        int start = seek((byte) 11, path);
+        if (start < 0) return null;
+        return slice(start + 4, arrayLength(start, 4) * 4).asIntBuffer();
+    }
+
+    /**
+     * Finds the long array at the given key path (starting at the root compound) and
+     * returns a read-only view of it, or null if there is no long array at that path.
+     */
+    public LongBuffer sliceLongArray(String... path) throws IOException {
+        int start = seek((byte) 12, path);
+        if (start < 0) return null;
+        return slice(start + 4, arrayLength(start, 8) * 8).asLongBuffer();
+    }
+
+    /**
+     * Walks the given key path from the root compound, skipping every tag that is not needed.
+     *
+     * @return The position of the payload of the found tag, or -1 if it does not exist or is not of the given type.
+     */
+    int seek(byte type, String... path) throws IOException {
+        int saved = position;
+        try {
+            return seekFrom(type, path);
+        } catch (IndexOutOfBoundsException e) {
+            throw truncated(e);
+        } finally {
+            position = saved;
+        }
+    }
+
+    private int seekFrom(byte type, String... path) throws IOException {
+        byte id = readByte();
+        if (id == 0) return -1;
+        skipUTF();
+
+        for (String key : path) {
+            if (id != 10) return -1;
+            id = 0;
+
+            byte child;
+            while ((child = readByte()) != 0) {
+                if (key.equals(readUTF())) {
+                    id = child;
+                    break;
+                }
+                skipPayload(child, 0);
+            }
+            if (id == 0) return -1;
+        }
+        return (id == type) ? position : -1;
+    }
+
+    /**
+     * Walks the paths of the node from the root tag, decoding only the tags the paths point at.
+     */
+    void extract(NBTPathSet.Node node, NBTPathSet.Collector collector) throws IOException {
+        int saved = position;
+        try {
+            byte id = readByte();
+            if (id == 0) return;
+            skipUTF();
+            extract(node, id, collector, 0);
+        } catch (IndexOutOfBoundsException e) {
+            throw truncated(e);
+        } finally {
+            position = saved;
+        }
+    }
+
+    /**
+     * Walks the payload at the current position, leaving the position after it (unless the collector is done).
+     */
+    private void extract(NBTPathSet.Node node, byte id, NBTPathSet.Collector collector, int depth) throws IOException {
+        if (node.targets.length > 0) {
+            StorageBase tag = readPayload(id, depth);
+            NBTPathSet.collect(node, tag, collector);
+            return;
+        }
+
+        if (id == 10) {
+            byte child;
+            while ((child = readByte()) != 0) {
+                int length = buffer.getShort(position) & 0xFFFF;
+                int start = position + 2;
+                int payload = start + length;
+
+                boolean matched = false;
+                for (NBTPathSet.Node next : node.children) {
+                    NBTPath.Step step = next.step;
+                    if (step.kind == NBTPath.ANY_KEY || (step.kind == NBTPath.KEY && keyEquals(start, length, step.utf))) {
+                        position = payload;
+                        extract(next, child, collector, depth + 1);
+                        if (collector.isDone()) return;
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    position = payload;
+                    skipPayload(child, depth + 1);
+                }
+            }
+        } else if (id == 9) {
+            if (depth > 512) throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
+            byte type = readByte();
+            int size = readListSize(type);
+            for (int i = 0; i < size; i++) {
+                int payload = position;
+                boolean matched = false;
+                for (NBTPathSet.Node next : node.children) {
+                    NBTPath.Step step = next.step;
+                    if (step.kind == NBTPath.ANY_INDEX || (step.kind == NBTPath.INDEX && step.index == i)) {
+                        position = payload;
+                        extract(next, type, collector, depth + 1);
+                        if (collector.isDone()) return;
+                        matched = true;
+                    }
+                }
+                if (!matched) skipPayload(type, depth + 1);
+            }
+        } else {
+            skipPayload(id, depth);
+        }
+    }
+
+    private boolean keyEquals(int start, int length, byte[] key) {
+        if (length != key.length) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    StorageBase readPayload(byte id, int depth) throws IOException {
+        switch (id) {
+            case 0:
+                sizeTracker.account(0, 16);
+                return new StorageTagEnd();
+            case 1:
+                sizeTracker.account(1, 16);
+                return new StorageTagByte(readByte());
+            case 2:
+                sizeTracker.account(2, 16);
+                return new StorageTagShort(readShort());
+            case 3:
+                sizeTracker.account(4, 16);
+                return new StorageTagInt(readInt());
+            case 4:
+                sizeTracker.account(8, 24);
+                return new StorageTagLong(readLong());
+            case 5:
+                sizeTracker.account(4, 16);
+                return new StorageTagFloat(Float.intBitsToFloat(readInt()));
+            case 6:
+                sizeTracker.account(8, 24);
+                return new StorageTagDouble(Double.longBitsToDouble(readLong()));
+            case 7: {
+                int length = readLength(1);
+                sizeTracker.account(4L + length, 16 + NBTSizeTracker.arrayHeap(1, length));
+                byte[] data = new byte[length];
+                buffer.get(position, data);
+                position += length;
+                return new StorageTagByteArray(data);
+            }
+            case 8: {
+                String data = readUTF();
+                sizeTracker.accountString(data, 0, 16);
+                return new StorageTagString(data);
+            }
+            case 9:
+                return readList(depth);
+            case 10:
+                return readCompound(depth);
+            case 11: {
+                int length = readLength(4);
+                sizeTracker.account(4L + 4L * length, 16 + NBTSizeTracker.arrayHeap(4, length));
+                int[] data = new int[length];
+                buffer.slice(position, length * 4).order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(data);
+                position += length * 4;
+                return new StorageTagIntArray(data);
+            }
+            case 12: {
+                int length = readLength(8);
+                sizeTracker.account(4L + 8L * length, 16 + NBTSizeTracker.arrayHeap(8, length));
+                long[] data = new long[length];
+                buffer.slice(position, length * 8).order(ByteOrder.BIG_ENDIAN).asLongBuffer().get(data);
+                position += length * 8;
+                return new StorageTagLongArray(data);
+            }
+            default:
+                throw new IOException("Unknown tag type " + id + " at position " + (position - 1));
+        }
+    }
+
+    private StorageTagCompound readCompound(int depth) throws IOException {
+        sizeTracker.account(1, NBTSizeTracker.tagHeap((byte) 10));
+        if (depth > 512) throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
+
+        StorageTagCompound compound = new StorageTagCompound();
+        // Filled through the map, so the tree starts out clean like one read from a stream
+        CompactTagMap tags = compound.tags();
+        byte id;
+        while ((id = readByte()) != 0) {
+            String key = readKey();
+            sizeTracker.accountString(key, 1, 0);
+            tags.put(key, readPayload(id, depth + 1));
+        }
+        sizeTracker.account(0, NBTSizeTracker.compoundHeap(tags.size()));
+        return compound;
+    }
+
+    private StorageTagList readList(int depth) throws IOException {
+        if (depth > 512) throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
+
+        byte type = readByte();
+        int size = readListSize(type);
+
+        sizeTracker.account(5, NBTSizeTracker.tagHeap((byte) 9) + NBTSizeTracker.arrayHeap(4, size));
+        List<StorageBase> tags = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tags.add(readPayload(type, depth + 1));
+        }
+        return new StorageTagList(type, tags);
+    }
+
+    private void skipPayload(byte id, int depth) throws IOException {
+        if (depth > 512) throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
+
+        switch (id) {
+            case 1 -> position += 1;
+            case 2 -> position += 2;
+            case 3, 5 -> position += 4;
+            case 4, 6 -> position += 8;
+            case 7 -> {
+                int length = readLength(1);
+                position += length;
+            }
+            case 8 -> position += 2 + (buffer.getShort(position) & 0xFFFF);
+            case 9 -> {
+                byte type = readByte();
+                int size = readListSize(type);
+                for (int i = 0; i < size; i++) skipPayload(type, depth + 1);
+            }
+            case 10 -> {
+                byte child;
+                while ((child = readByte()) != 0) {
+                    skipUTF();
+                    skipPayload(child, depth + 1);
+                }
+            }
+            case 11 -> {
+                int length = readLength(4) * 4;
+                position += length;
+            }
+            case 12 -> {
+                int length = readLength(8) * 8;
+                position += length;
+            }
+            default -> throw new IOException("Unknown tag type " + id + " at position " + (position - 1));
+        }
+    }
+
+    private ByteBuffer slice(int start, int length) {
+        return buffer.slice(start, length).asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private byte readByte() {
+        return buffer.get(position++);
+    }
+
+    private short readShort() {
+        short value = buffer.getShort(position);
+        position += 2;
+        return value;
+    }
+
+    private int readInt() {
+        int value = buffer.getInt(position);
+        position += 4;
+        return value;
+    }
+
+    private long readLong() {
+        long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    /**
+     * Reads the length of an array, which has to fit in the rest of the data so a bad length never allocates.
+     */
+    private int readLength(int elementSize) throws IOException {
+        int length = arrayLength(position, elementSize);
+        position += 4;
+        return length;
+    }
+
+    private int arrayLength(int at, int elementSize) throws IOException {
+        int length = buffer.getInt(at);
+        if (length < 0) throw new IOException("Negative array length " + length + " at position " + at);
+        if (length > (buffer.limit() - at - 4) / elementSize) {
+            throw new IOException("Array length " + length + " at position " + at + " is longer than the data");
+        }
+        return length;
+    }
+
+    /**
+     * Reads the size of a list, every element takes at least one byte so it has to fit in the rest of the data.
+     */
+    private int readListSize(byte type) throws IOException {
+        int size = readInt();
+        if (size < 0) throw new IOException("Negative list size " + size + " at position " + (position - 4));
+        if (type == 0 && size > 0) throw new IOException("Missing type on ListTag");
+        if (size > buffer.limit() - position) {
+            throw new IOException("List size " + size + " at position " + (position - 4) + " is longer than the data");
+        }
+        return size;
+    }
+
+    private IOException truncated(IndexOutOfBoundsException e) {
+        return new IOException("NBT data ends before the tag does (limit " + buffer.limit() + ")", e);
+    }
+
+    private void skipUTF() {
+        position += 2 + (buffer.getShort(position) & 0xFFFF);
+    }
+
+    /**
+     * Reads a string in the modified UTF-8 format used by {@link java.io.DataInput#readUTF()}.
+     */
+    String readUTF() throws IOException {
+        int length = buffer.getShort(position) & 0xFFFF;
+        int start = position + 2;
+        position = start + length;
+        return decodeUTF(buffer, start, length);
+    }
+
+    /**
+     * Reads a compound key, which is interned when the {@link NBTKeyTable} is enabled.
+     */
+    private String readKey() throws IOException {
+        int length = buffer.getShort(position) & 0xFFFF;
+        int start = position + 2;
+        position = start + length;
+        return NBTKeyTable.readKey(buffer, start, length);
+    }
+
+    static String decodeUTF(ByteBuffer buffer, int start, int length) throws UTFDataFormatException {
+        int end = start + length;
+        int index = start;
+        while (index < end && buffer.get(index) >= 0) index++;
+
+        // Plain ASCII, which is the case for almost every key
+        if (index == end) {
+            if (buffer.hasArray()) return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.ISO_8859_1);
+
+            byte[] bytes = new byte[length];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[length];
+        int count = 0;
+        for (int i = start; i < index; i++) chars[count++] = (char) buffer.get(i);
+
+        while (index < end) {
+            int a = buffer.get(index) & 0xFF;
+            switch (a >> 4) {
+                case 0, 1, 2, 3, 4, 5, 6, 7 -> {
+                    index++;
+                    chars[count++] = (char) a;
+                }
+                case 12, 13 -> {
+                    if (index + 2 > end) throw new UTFDataFormatException("malformed input: partial character at end");
+                    int b = buffer.get(index + 1);
+                    if ((b & 0xC0) != 0x80) throw new UTFDataFormatException("malformed input around byte " + (index + 1));
+                    chars[count++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+                    index += 2;
+                }
+                case 14 -> {
+                    if (index + 3 > end) throw new UTFDataFormatException("malformed input: partial character at end");
+                    int b = buffer.get(index + 1);
+                    int c = buffer.get(index + 2);
+                    if (((b & 0xC0) != 0x80) || ((c & 0xC0) != 0x80)) throw new UTFDataFormatException("malformed input around byte " + (index + 2));
+                    chars[count++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+                    index += 3;
+                }
+                default -> throw new UTFDataFormatException("malformed input around byte " + index);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
@@ -0,0 +1,188 @@
+package org.bsdevelopment.nbt;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Encodes tags as uncompressed NBT directly into a {@link ByteBuffer}, without going through
+ * a {@link java.io.DataOutputStream}. The output is byte-for-byte identical to
+ * {@link CompressedStreamTools#writeTag(StorageBase, java.io.DataOutput)}.
+ * <p>
+ * When no buffer is given, a heap buffer is used that grows as needed.
+ * <p>
+ * Compound keys are written in the order they were added (or read) in, see {@link #setSortKeys(boolean)}.
+ */
+public class NBTBufferWriter {
+    private ByteBuffer buffer;
+    private final boolean growable;
+    private boolean sortKeys = false;
+
+    public NBTBufferWriter() {
+        this(256);
+    }
+
+    public NBTBufferWriter(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(Math.max(16, initialCapacity));
+        this.growable = true;
+    }
+
+    /**
+     * Writes into the given buffer (starting at its position), which will not be grown.
+     * A {@link java.nio.BufferOverflowException} is thrown if the data does not fit.
+     */
+    public NBTBufferWriter(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        this.growable = false;
+    }
+
+    /**
+     * Writes compound keys in alphabetical order instead of the order they were added in, so equal
+     * compounds always result in the same bytes no matter how they were built.
+     */
+    public NBTBufferWriter setSortKeys(boolean sortKeys) {
+        this.sortKeys = sortKeys;
+        return this;
+    }
+
+    /**
+     * Writes the tag as a root tag (type byte, empty name and payload).
+     */
+    public NBTBufferWriter writeRoot(StorageBase tag) throws UTFDataFormatException {
+        ensure(1);
+        buffer.put(tag.getId());
+        if (tag.getId() != 0) {
+            writeUTF("");
+            writePayload(tag);
+        }
+        return this;
+    }
+
+    /**
+     * Gets the written data, ready to be read (position 0, limit at the end of the written data).
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate().flip();
+    }
+
+    /**
+     * Gets the {@link NBTDigest digest} of the written data.
+     */
+    public NBTDigest digest() {
+        return NBTDigest.of(getBuffer());
+    }
+
+    void writePayload(StorageBase tag) throws UTFDataFormatException {
+        switch (tag.getId()) {
+            case 1 -> {
+                ensure(1);
+                buffer.put(((StorageTagByte) tag).getByte());
+            }
+            case 2 -> {
+                ensure(2);
+                buffer.putShort(((StorageTagShort) tag).getShort());
+            }
+            case 3 -> {
+                ensure(4);
+                buffer.putInt(((StorageTagInt) tag).getInt());
+            }
+            case 4 -> {
+                ensure(8);
+                buffer.putLong(((StorageTagLong) tag).getLong());
+            }
+            case 5 -> {
+                ensure(4);
+                buffer.putFloat(((StorageTagFloat) tag).getFloat());
+            }
+            case 6 -> {
+                ensure(8);
+                buffer.putDouble(((StorageTagDouble) tag).getDouble());
+            }
+            case 7 -> {
+                byte[] data = ((StorageTagByteArray) tag).getByteArray();
+                ensure(4 + data.length);
+                buffer.putInt(data.length).put(data);
+            }
+            case 8 -> writeUTF(tag.getString());
+            case 9 -> {
+                List<StorageBase> list = ((StorageTagList) tag).tags();
+                ensure(5);
+                buffer.put(list.isEmpty() ? 0 : list.get(0).getId());
+                buffer.putInt(list.size());
+                for (StorageBase child : list) writePayload(child);
+            }
+            case 10 -> {
+                CompactTagMap tags = ((StorageTagCompound) tag).tags();
+                int[] positions = (sortKeys && tags.size() > 1) ? tags.sortedPositions() : null;
+                for (int i = 0; i < tags.size(); i++) {
+                    int position = (positions == null) ? i : positions[i];
+                    String key = tags.keyAt(position);
+                    StorageBase child = tags.valueAt(position);
+                    ensure(1);
+                    buffer.put(child.getId());
+                    if (child.getId() != 0) {
+                        writeUTF(key);
+                        writePayload(child);
+                    }
+                }
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+            case 11 -> {
+                int[] data = ((StorageTagIntArray) tag).getIntArray();
+                ensure(4 + data.length * 4);
+                buffer.putInt(data.length);
+                buffer.asIntBuffer().put(data);
+                buffer.position(buffer.position() + data.length * 4);
+            }
+            case 12 -> {
+                long[] data = ((StorageTagLongArray) tag).getList();
+                ensure(4 + data.length * 8);
+                buffer.putInt(data.length);
+                buffer.asLongBuffer().put(data);
+                buffer.position(buffer.position() + data.length * 8);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Writes a string in the modified UTF-8 format used by {@link java.io.DataOutput#writeUTF(String)}.
+     */
+    void writeUTF(String string) throws UTFDataFormatException {
+        int length = string.length();
+        int utfLength = length;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x80 || c == 0) utfLength += (c >= 0x800) ? 2 : 1;
+        }
+        if (utfLength > 65535) throw new UTFDataFormatException("encoded string too long: " + utfLength + " bytes");
+
+        ensure(2 + utfLength);
+        buffer.putShort((short) utfLength);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80 && c != 0) {
+                buffer.put((byte) c);
+            } else if (c >= 0x800) {
+                buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (!growable || buffer.remaining() >= bytes) return;
+
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        grown.put(buffer.flip());
+        buffer = grown;
+    }
+}
@@ -0,0 +1,269 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the columns exported by {@link NBTColumnWriter}. Every read goes through the file of a single column from
+ * start to end, so getting one value of every compound only reads that value.
+ * <p>
+ * The returned arrays have one entry per row, rows without a value hold 0 (or null for strings), use
+ * {@link #readPresent(String)} to tell them apart from stored zeros. Paths are compared by their steps,
+ * so {@code "stats".kills} finds the column of {@code stats.kills}.
+ */
+public class NBTColumnReader {
+    private final File directory;
+    private final int rows;
+    private final boolean keys;
+    private final Map<NBTPath, Column> columns = new LinkedHashMap<>();
+
+    public NBTColumnReader(File directory) throws IOException {
+        this.directory = directory;
+
+        StorageTagCompound manifest;
+        try (FileInputStream in = new FileInputStream(new File(directory, NBTColumnWriter.MANIFEST))) {
+            manifest = CompressedStreamTools.readCompressed(in);
+        }
+        this.rows = manifest.getInteger("rows");
+        this.keys = manifest.getBoolean("keys");
+
+        StorageTagList list = manifest.getTagList("columns", 10);
+        for (int i = 0; i < list.tagCount(); i++) {
+            StorageTagCompound entry = list.getCompoundTagAt(i);
+            String path = entry.getString("path");
+            try {
+                columns.put(NBTPath.compile(path), new Column(path, entry.getString("file"), entry.getByte("type")));
+            } catch (NBTException e) {
+                throw new IOException("Invalid column path '" + path + "'", e);
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Gets the path of every column, in the order they were first found.
+     */
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>(columns.size());
+        for (Column column : columns.values()) paths.add(column.path);
+        return Collections.unmodifiableList(paths);
+    }
+
+    public boolean hasColumn(String path) {
+        return column(path) != null;
+    }
+
+    /**
+     * Gets the tag type of the values in the column, or 0 if there is no such column.
+     */
+    public byte getType(String path) {
+        Column column = column(path);
+        return (column == null) ? 0 : column.type;
+    }
+
+    /**
+     * Gets the rows that have a value in the column, or null if there is no such column.
+     */
+    public BitSet readPresent(String path) throws IOException {
+        Column column = column(path);
+        if (column == null) return null;
+
+        try (Input input = new Input(column.file)) {
+            input.skipValues();
+            return input.readBitmap();
+        }
+    }
+
+    /**
+     * Gets the keys the compounds were added with, or null if they were added without keys.
+     */
+    public String[] readKeys() throws IOException {
+        return keys ? readStringFile(NBTColumnWriter.KEYS) : null;
+    }
+
+    /**
+     * Gets the value of every row as a string, or null if there is no such column.
+     */
+    public String[] readStrings(String path) throws IOException {
+        Column column = column(path);
+        if (column == null) return null;
+        return readStringFile(column.file);
+    }
+
+    /**
+     * Gets the value of every row as an int, or null if there is no such column.
+     */
+    public int[] readInts(String path) throws IOException {
+        Column column = column(path);
+        if (column == null) return null;
+
+        try (Input input = new Input(column.file)) {
+            int[] values = new int[input.count];
+            for (int i = 0; i < values.length; i++) values[i] = (int) input.nextLong();
+            if (input.count == input.rows) return values;
+
+            int[] result = new int[input.rows];
+            BitSet present = input.readBitmap();
+            int value = 0;
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) result[row] = values[value++];
+            return result;
+        }
+    }
+
+    /**
+     * Gets the value of every row as a long, or null if there is no such column.
+     */
+    public long[] readLongs(String path) throws IOException {
+        Column column = column(path);
+        if (column == null) return null;
+
+        try (Input input = new Input(column.file)) {
+            long[] values = new long[input.count];
+            for (int i = 0; i < values.length; i++) values[i] = input.nextLong();
+            if (input.count == input.rows) return values;
+
+            long[] result = new long[input.rows];
+            BitSet present = input.readBitmap();
+            int value = 0;
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) result[row] = values[value++];
+            return result;
+        }
+    }
+
+    /**
+     * Gets the value of every row as a double, or null if there is no such column.
+     */
+    public double[] readDoubles(String path) throws IOException {
+        Column column = column(path);
+        if (column == null) return null;
+
+        try (Input input = new Input(column.file)) {
+            double[] values = new double[input.count];
+            for (int i = 0; i < values.length; i++) values[i] = input.nextDouble();
+            if (input.count == input.rows) return values;
+
+            double[] result = new double[input.rows];
+            BitSet present = input.readBitmap();
+            int value = 0;
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) result[row] = values[value++];
+            return result;
+        }
+    }
+
+    private String[] readStringFile(String file) throws IOException {
+        try (Input input = new Input(file)) {
+            if (input.type != 8) throw new IOException("Column " + file + " does not hold strings");
+
+            String[] values = new String[input.count];
+            for (int i = 0; i < values.length; i++) values[i] = input.in.readUTF();
+            if (input.count == input.rows) return values;
+
+            String[] result = new String[input.rows];
+            BitSet present = input.readBitmap();
+            int value = 0;
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) result[row] = values[value++];
+            return result;
+        }
+    }
+
+    private Column column(String path) {
+        try {
+            return columns.get(NBTPath.compile(path));
+        } catch (NBTException e) {
+            return null;
+        }
+    }
+
+    private record Column(String path, String file, byte type) {
+    }
+
+    /**
+     * A column file, read from start to end.
+     */
+    private final class Input implements Closeable {
+        private final String file;
+        private final DataInputStream in;
+        private final byte type;
+        private final int rows;
+        private final int count;
+
+        private Input(String file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, file)), 1 << 16));
+            try {
+                if (in.readInt() != NBTColumnWriter.MAGIC) throw new IOException("Column " + file + " is not a column file");
+                this.type = in.readByte();
+                this.rows = in.readInt();
+                this.count = in.readInt();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        private long nextLong() throws IOException {
+            return switch (type) {
+                case 1 -> in.readByte();
+                case 2 -> in.readShort();
+                case 3 -> in.readInt();
+                case 4 -> in.readLong();
+                case 5 -> (long) in.readFloat();
+                case 6 -> (long) in.readDouble();
+                default -> throw new IOException("Column " + file + " does not hold numbers");
+            };
+        }
+
+        private double nextDouble() throws IOException {
+            return switch (type) {
+                case 5 -> in.readFloat();
+                case 6 -> in.readDouble();
+                default -> nextLong();
+            };
+        }
+
+        private void skipValues() throws IOException {
+            int size = switch (type) {
+                case 1 -> 1;
+                case 2 -> 2;
+                case 3, 5 -> 4;
+                case 4, 6 -> 8;
+                default -> 0;
+            };
+
+            if (size == 0) {
+                for (int i = 0; i < count; i++) in.skipNBytes(in.readUnsignedShort());
+            } else {
+                in.skipNBytes((long) size * count);
+            }
+        }
+
+        /**
+         * Reads the bitmap after the values, which have to be read or skipped first.
+         */
+        private BitSet readBitmap() throws IOException {
+            byte[] bitmap = new byte[(rows + 7) >>> 3];
+            in.readFully(bitmap);
+            return BitSet.valueOf(bitmap);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
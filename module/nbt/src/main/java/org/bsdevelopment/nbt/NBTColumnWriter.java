@@ -0,0 +1,238 @@
+package org.bsdevelopment.nbt;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports many compounds (such as every stored player) to a directory of column files, so a single value can
+ * later be read for every compound with {@link NBTColumnReader} without decoding any of the trees.
+ * <p>
+ * Every path gets its own file, holding the values of the compounds that have it in the order they were added,
+ * followed by a bitmap of which rows have a value. Only numbers and strings are exported, the type of a column is
+ * the type of the first value found for it and numbers of another type are converted to it. Values that can not be
+ * converted are left out, just like missing ones.
+ * <p>
+ * Without paths, every number and string reachable through compounds is exported (lists and arrays are skipped).
+ * Every column keeps a file open until the writer is closed.
+ */
+public class NBTColumnWriter implements Closeable {
+    static final int MAGIC = 0x4253434C;
+    static final String MANIFEST = "columns.nbt";
+    static final String KEYS = "keys.col";
+
+    private final File directory;
+    private final NBTPath[] paths;
+    private final Column[] pathColumns;
+    private final Node root = new Node("");
+    private final List<Column> columns = new ArrayList<>();
+    private Column keys;
+    private int rows = 0;
+    private boolean closed = false;
+
+    /**
+     * Exports every number and string in the compounds.
+     */
+    public NBTColumnWriter(File directory) throws IOException {
+        this(directory, new NBTPath[0]);
+    }
+
+    /**
+     * Exports the first tag of every path, or every number and string when no paths are given.
+     */
+    public NBTColumnWriter(File directory, NBTPath... paths) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+
+        this.directory = directory;
+        this.paths = paths.clone();
+        this.pathColumns = new Column[paths.length];
+    }
+
+    /**
+     * Adds the compound as the next row.
+     */
+    public void add(StorageTagCompound compound) throws IOException {
+        add(null, compound);
+    }
+
+    /**
+     * Adds the compound as the next row, the key (such as the name the compound was stored under) is
+     * exported as well and can be read with {@link NBTColumnReader#readKeys()}.
+     */
+    public void add(String key, StorageTagCompound compound) throws IOException {
+        if (closed) throw new IOException("Writer is closed");
+
+        int row = rows++;
+        if (key != null) {
+            if (keys == null) keys = new Column(null, KEYS, (byte) 8);
+            keys.add(row, new StorageTagString(key));
+        }
+
+        if (paths.length == 0) {
+            export(root, compound, row);
+            return;
+        }
+
+        for (int i = 0; i < paths.length; i++) {
+            StorageBase tag = paths[i].get(compound);
+            if (!isExported(tag)) continue;
+
+            Column column = pathColumns[i];
+            if (column == null) pathColumns[i] = column = column(paths[i].toString(), tag.getId());
+            column.add(row, tag);
+        }
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Finishes every column and writes the list of columns, the export can not be read before this.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        IOException error = null;
+        List<Column> all = new ArrayList<>(columns);
+        if (keys != null) all.add(keys);
+        for (Column column : all) {
+            try {
+                column.finish(rows);
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+        }
+        if (error != null) throw error;
+
+        StorageTagList list = new StorageTagList();
+        for (Column column : columns) {
+            StorageTagCompound entry = new StorageTagCompound();
+            entry.setString("path", column.path);
+            entry.setString("file", column.file.getName());
+            entry.setByte("type", column.type);
+            list.appendTag(entry);
+        }
+
+        StorageTagCompound manifest = new StorageTagCompound();
+        manifest.setInteger("rows", rows);
+        manifest.setBoolean("keys", keys != null);
+        manifest.setTag("columns", list);
+        try (FileOutputStream out = new FileOutputStream(new File(directory, MANIFEST))) {
+            CompressedStreamTools.writeCompressed(manifest, out);
+        }
+    }
+
+    private void export(Node node, StorageTagCompound compound, int row) throws IOException {
+        CompactTagMap map = compound.tags();
+        for (int i = 0; i < map.size(); i++) {
+            StorageBase tag = map.valueAt(i);
+            if (tag instanceof StorageTagCompound child) {
+                export(node.child(map.keyAt(i)), child, row);
+            } else if (isExported(tag)) {
+                Node child = node.child(map.keyAt(i));
+                if (child.column == null) child.column = column(child.path, tag.getId());
+                child.column.add(row, tag);
+            }
+        }
+    }
+
+    private Column column(String path, byte type) throws IOException {
+        Column column = new Column(path, columns.size() + ".col", type);
+        columns.add(column);
+        return column;
+    }
+
+    private static boolean isExported(StorageBase tag) {
+        return (tag instanceof StoragePrimitive) || (tag instanceof StorageTagString);
+    }
+
+    /**
+     * The compounds found at a path so far, so the path strings are only built once.
+     */
+    private static final class Node {
+        private final String path;
+        private Map<String, Node> children;
+        private Column column;
+
+        private Node(String path) {
+            this.path = path;
+        }
+
+        private Node child(String key) {
+            if (children == null) children = new HashMap<>();
+            Node child = children.get(key);
+            if (child == null) children.put(key, child = new Node(NBTPath.append(path, key)));
+            return child;
+        }
+    }
+
+    private final class Column {
+        private final String path;
+        private final File file;
+        private final byte type;
+        private final FileOutputStream stream;
+        private final DataOutputStream out;
+        private final BitSet present = new BitSet();
+        private int count = 0;
+
+        private Column(String path, String name, byte type) throws IOException {
+            this.path = path;
+            this.file = new File(directory, name);
+            this.type = type;
+            this.stream = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+
+            // The row and value counts are filled in when the column is finished
+            out.writeInt(MAGIC);
+            out.writeByte(type);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        private void add(int row, StorageBase tag) throws IOException {
+            if (type == 8) {
+                if (!(tag instanceof StorageTagString string)) return;
+                out.writeUTF(string.getString());
+            } else {
+                if (!(tag instanceof StoragePrimitive primitive)) return;
+                switch (type) {
+                    case 1 -> out.writeByte(primitive.getByte());
+                    case 2 -> out.writeShort(primitive.getShort());
+                    case 3 -> out.writeInt(primitive.getInt());
+                    case 4 -> out.writeLong(primitive.getLong());
+                    case 5 -> out.writeFloat(primitive.getFloat());
+                    default -> out.writeDouble(primitive.getDouble());
+                }
+            }
+            present.set(row);
+            count++;
+        }
+
+        private void finish(int rows) throws IOException {
+            try {
+                byte[] bitmap = new byte[(rows + 7) >>> 3];
+                byte[] bits = present.toByteArray();
+                System.arraycopy(bits, 0, bitmap, 0, bits.length);
+                out.write(bitmap);
+                out.flush();
+
+                ByteBuffer counts = ByteBuffer.allocate(8).putInt(rows).putInt(count).flip();
+                while (counts.hasRemaining()) stream.getChannel().write(counts, 5 + counts.position());
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
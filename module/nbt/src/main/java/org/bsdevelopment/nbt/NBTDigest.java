@@ -0,0 +1,137 @@
+package org.bsdevelopment.nbt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A 128-bit digest of the contents of a tag, which (unlike {@link StorageBase#hashCode()}) is the same
+ * between runs and versions, so it can be stored and used to detect changes or duplicate data.
+ * <p>
+ * The digest is the 128-bit x64 MurmurHash3 (seed 0) of the uncompressed NBT. {@link #of(StorageBase)} always
+ * writes compound keys in alphabetical order, so equal tags have the same digest no matter how they were built.
+ * This is not a cryptographic hash, it should not be used where someone could craft colliding data on purpose.
+ */
+public final class NBTDigest {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+    private final long low;
+
+    public NBTDigest(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Gets the digest of the tag written as a root tag with sorted keys.
+     */
+    public static NBTDigest of(StorageBase tag) throws IOException {
+        return new NBTBufferWriter().setSortKeys(true).writeRoot(tag).digest();
+    }
+
+    /**
+     * Gets the digest of the remaining data in the buffer, without changing its position.
+     */
+    public static NBTDigest of(ByteBuffer buffer) {
+        return hash(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public static NBTDigest of(byte[] data, int offset, int length) {
+        return hash(ByteBuffer.wrap(data, offset, length).slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Gets the first 64 bits of the digest, for when a shorter key is enough.
+     */
+    public long asLong() {
+        return high;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public byte[] toByteArray() {
+        return ByteBuffer.allocate(16).putLong(high).putLong(low).array();
+    }
+
+    @Override
+    public boolean equals(Object instance) {
+        return instance instanceof NBTDigest other && other.high == high && other.low == low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32));
+    }
+
+    /**
+     * Gets the digest as 32 hexadecimal characters.
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    private static NBTDigest hash(ByteBuffer data) {
+        int length = data.remaining();
+        long h1 = 0;
+        long h2 = 0;
+
+        while (data.remaining() >= 16) {
+            long k1 = data.getLong();
+            long k2 = data.getLong();
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // The last 0-15 bytes
+        long k1 = 0;
+        long k2 = 0;
+        int start = data.position();
+        int tail = data.remaining();
+        for (int i = tail - 1; i >= 8; i--) k2 = (k2 << 8) | (data.get(start + i) & 0xFFL);
+        for (int i = Math.min(tail, 8) - 1; i >= 0; i--) k1 = (k1 << 8) | (data.get(start + i) & 0xFFL);
+        h2 ^= mixK2(k2);
+        h1 ^= mixK1(k1);
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new NBTDigest(h1, h2);
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,135 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTSizeTracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Estimates how much heap a tag and everything in it occupies, and which parts of it take up the most.
+ * <p>
+ * The estimate counts the tag objects, their arrays and strings, the arrays of compound maps and the backing arrays
+ * of lists, with the same sizes as {@link NBTSizeTracker} (a 64-bit JVM with compressed references). Objects that
+ * are referenced more than once within the tree, such as interned keys or tags shared by a
+ * {@link StorageTagCompound#snapshot() snapshot}, are only counted once.
+ */
+public final class NBTHeapEstimator {
+    private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final int limit;
+    // The smallest of the largest subtrees found so far is at the head
+    private final PriorityQueue<Entry> largest = new PriorityQueue<>(Comparator.comparingLong(Entry::heap));
+    // The keys and indexes leading to the tag that is being visited
+    private final List<Object> path = new ArrayList<>();
+
+    private NBTHeapEstimator(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Gets the estimated heap of the tag and everything in it, in bytes.
+     */
+    public static long estimate(StorageBase tag) {
+        return new NBTHeapEstimator(0).visit(tag);
+    }
+
+    /**
+     * Estimates the heap of the tag and finds the largest subtrees in it (not including the tag itself).
+     * Subtrees are nested, so a large list shows up next to the elements that make it large.
+     *
+     * @param limit The amount of subtrees to report.
+     */
+    public static Report report(StorageBase tag, int limit) {
+        NBTHeapEstimator estimator = new NBTHeapEstimator(limit);
+        long total = estimator.visit(tag);
+
+        List<Entry> entries = new ArrayList<>(estimator.largest);
+        entries.sort(Comparator.comparingLong(Entry::heap).reversed());
+        return new Report(total, Collections.unmodifiableList(entries));
+    }
+
+    private long visit(StorageBase tag) {
+        if (!seen.add(tag)) return 0;
+
+        long heap;
+        if (tag instanceof StorageTagCompound compound) {
+            CompactTagMap map = compound.tags();
+            heap = 24;
+            if (seen.add(map)) heap += map.heapSize();
+
+            for (int i = 0; i < map.size(); i++) {
+                String key = map.keyAt(i);
+                if (seen.add(key)) heap += NBTSizeTracker.stringHeap(key);
+
+                path.add(key);
+                heap += visit(map.valueAt(i));
+                path.remove(path.size() - 1);
+            }
+        } else if (tag instanceof StorageTagList list) {
+            List<StorageBase> tags = list.tags();
+            heap = 32;
+            if (seen.add(tags)) heap += 24 + NBTSizeTracker.arrayHeap(4, tags.size());
+
+            for (int i = 0; i < tags.size(); i++) {
+                path.add(i);
+                heap += visit(tags.get(i));
+                path.remove(path.size() - 1);
+            }
+        } else if (tag instanceof StorageTagString string) {
+            heap = 16;
+            if (seen.add(string.getString())) heap += NBTSizeTracker.stringHeap(string.getString());
+        } else if (tag instanceof StorageTagByteArray array) {
+            heap = 16 + NBTSizeTracker.arrayHeap(1, array.getByteArray().length);
+        } else if (tag instanceof StorageTagIntArray array) {
+            heap = 16 + NBTSizeTracker.arrayHeap(4, array.getIntArray().length);
+        } else if (tag instanceof StorageTagLongArray array) {
+            heap = 16 + NBTSizeTracker.arrayHeap(8, array.getList().length);
+        } else {
+            heap = NBTSizeTracker.tagHeap(tag.getId());
+        }
+
+        // Primitives are never among the largest, and the root is the total
+        if ((limit > 0) && !path.isEmpty() && !(tag instanceof StoragePrimitive)) record(tag, heap);
+        return heap;
+    }
+
+    private void record(StorageBase tag, long heap) {
+        if (largest.size() == limit) {
+            if (heap <= largest.peek().heap()) return;
+            largest.poll();
+        }
+
+        // Only built for tags that make it into the report
+        String path = "";
+        for (Object step : this.path) {
+            path = (step instanceof Integer index) ? path + "[" + index + "]" : NBTPath.append(path, (String) step);
+        }
+        largest.add(new Entry(path, tag.getId(), heap));
+    }
+
+    /**
+     * A subtree and its estimated heap in bytes, the path is in the syntax of {@link NBTPath}.
+     */
+    public record Entry(String path, byte type, long heap) {
+    }
+
+    /**
+     * The estimated heap of a tag, with its largest subtrees from largest to smallest.
+     */
+    public record Report(long total, List<Entry> largest) {
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%,14d  (total)%n", total));
+            for (Entry entry : largest) {
+                builder.append(String.format("%,14d  %5.1f%%  %-8s %s%n", entry.heap(), 100.0 * entry.heap() / total,
+                        StorageBase.NBT_TYPES[entry.type()], entry.path()));
+            }
+            return builder.toString();
+        }
+    }
+}
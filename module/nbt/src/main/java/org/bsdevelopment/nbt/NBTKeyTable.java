@@ -0,0 +1,171 @@
+package org.bsdevelopment.nbt;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded table of compound keys, so compounds read while it is {@link #setEnabled(boolean) enabled}
+ * share one string instance per key instead of each holding its own {@code "health"}, {@code "uuid"}, etc.
+ * <p>
+ * Keys are looked up by their modified UTF-8 bytes, so a key that is already in the table is returned without
+ * decoding or allocating anything. The table works like a direct-mapped cache: every slot holds one key and a
+ * colliding key simply replaces it, which keeps the table bounded and lock-free for concurrent readers.
+ */
+public final class NBTKeyTable {
+    /**
+     * Keys longer than this (in bytes) are not interned, as they are unlikely to repeat.
+     */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private static final NBTKeyTable SHARED = new NBTKeyTable(4096);
+    private static volatile boolean enabled = false;
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_KEY_LENGTH]);
+
+    private final Entry[] entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity The amount of slots, rounded up to a power of two.
+     */
+    public NBTKeyTable(int capacity) {
+        int size = 16;
+        while (size < capacity) size <<= 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Gets the table used while reading compounds.
+     */
+    public static NBTKeyTable shared() {
+        return SHARED;
+    }
+
+    /**
+     * Sets whether compound keys are interned in the {@link #shared() shared table} when reading NBT.
+     */
+    public static void setEnabled(boolean enabled) {
+        NBTKeyTable.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reads a key written with {@link java.io.DataOutput#writeUTF(String)}, interned if the table is enabled.
+     */
+    static String readKey(DataInput input) throws IOException {
+        if (!enabled) return input.readUTF();
+
+        int length = input.readUnsignedShort();
+        if (length > MAX_KEY_LENGTH) {
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return NBTBufferReader.decodeUTF(ByteBuffer.wrap(bytes), 0, length);
+        }
+
+        byte[] bytes = SCRATCH.get();
+        input.readFully(bytes, 0, length);
+        return SHARED.intern(bytes, 0, length);
+    }
+
+    /**
+     * Reads a key from the buffer at the given range, interned if the table is enabled.
+     */
+    static String readKey(ByteBuffer buffer, int start, int length) throws IOException {
+        if (!enabled || length > MAX_KEY_LENGTH) return NBTBufferReader.decodeUTF(buffer, start, length);
+        return SHARED.intern(buffer, start, length);
+    }
+
+    /**
+     * Gets the string for the modified UTF-8 bytes, from the table if they were seen before.
+     */
+    public String intern(byte[] bytes, int offset, int length) throws IOException {
+        int hash = 1;
+        for (int i = 0; i < length; i++) hash = 31 * hash + bytes[offset + i];
+
+        int slot = spread(hash) & mask;
+        Entry entry = entries[slot];
+        if (entry != null && entry.hash == hash && entry.matches(bytes, offset, length)) {
+            hits.increment();
+            return entry.value;
+        }
+
+        misses.increment();
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        String value = NBTBufferReader.decodeUTF(ByteBuffer.wrap(copy), 0, length);
+        entries[slot] = new Entry(hash, copy, value);
+        return value;
+    }
+
+    /**
+     * Gets the string for the modified UTF-8 bytes in the buffer, from the table if they were seen before.
+     */
+    public String intern(ByteBuffer buffer, int start, int length) throws IOException {
+        int hash = 1;
+        for (int i = 0; i < length; i++) hash = 31 * hash + buffer.get(start + i);
+
+        int slot = spread(hash) & mask;
+        Entry entry = entries[slot];
+        if (entry != null && entry.hash == hash && entry.matches(buffer, start, length)) {
+            hits.increment();
+            return entry.value;
+        }
+
+        misses.increment();
+        byte[] copy = new byte[length];
+        buffer.get(start, copy);
+        String value = NBTBufferReader.decodeUTF(ByteBuffer.wrap(copy), 0, length);
+        entries[slot] = new Entry(hash, copy, value);
+        return value;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Removes every key from the table.
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length; i++) entries[i] = null;
+        hits.reset();
+        misses.reset();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Entries are immutable, so they can be shared between threads without locking (all fields are final).
+     */
+    private record Entry(int hash, byte[] bytes, String value) {
+        private boolean matches(byte[] other, int offset, int length) {
+            if (bytes.length != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other[offset + i]) return false;
+            }
+            return true;
+        }
+
+        private boolean matches(ByteBuffer buffer, int start, int length) {
+            if (bytes.length != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != buffer.get(start + i)) return false;
+            }
+            return true;
+        }
+    }
+}
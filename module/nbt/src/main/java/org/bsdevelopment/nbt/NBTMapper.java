@@ -0,0 +1,979 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.annotation.NBTField;
+import org.bsdevelopment.nbt.annotation.NBTIgnore;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Converts records and plain classes to and from compounds, without hand-written {@code setInteger}/{@code getInteger}
+ * code. The mapper of a class is built once (see {@link #of(Class)}) into a converter per field that uses method
+ * handles, so primitive fields are read and written without reflection or boxing.
+ * <p>
+ * Every non-static field that is not {@code transient} or annotated with {@link NBTIgnore} is stored under its name,
+ * or the name given with {@link NBTField}. Supported field types are primitives and their wrappers, strings, UUIDs and
+ * enums (stored as strings, the same as {@link StorageTagCompound#setUniqueId(String, UUID)} and
+ * {@link StorageTagCompound#setEnum(String, Enum)}), {@code byte[]}/{@code int[]}/{@code long[]} (as array tags),
+ * {@code boolean[]} (as a byte array), {@code short[]}/{@code float[]}/{@code double[]} (as lists of that type),
+ * {@code char[]} (as a string), tags, {@code List}s, {@code Map}s with string keys and other mapped classes.
+ * Null values are not stored.
+ * <p>
+ * Classes need a constructor without arguments (of any visibility). Fields that are missing from the compound,
+ * or hold another type of tag, keep the value the constructor gave them; record components get 0/false/null.
+ */
+public final class NBTMapper<T> {
+    private static final ClassValue<NBTMapper<?>> MAPPERS = new ClassValue<>() {
+        @Override
+        protected NBTMapper<?> computeValue(Class<?> type) {
+            return new NBTMapper<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final Property[] properties;
+    // Records: (Object[]) -> Object, classes: () -> Object
+    private final MethodHandle constructor;
+    private final boolean record;
+
+    private NBTMapper(Class<T> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+            throw new IllegalArgumentException("Can not map " + type.getName() + ", it has to be a record or class");
+
+        this.type = type;
+        this.record = type.isRecord();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try {
+            List<Property> properties = new ArrayList<>();
+            if (record) {
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] types = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    types[i] = components[i].getType();
+                    Field field = type.getDeclaredField(components[i].getName());
+                    if (field.isAnnotationPresent(NBTIgnore.class)) {
+                        properties.add(new IgnoredProperty(i, types[i]));
+                        continue;
+                    }
+
+                    field.setAccessible(true);
+                    properties.add(property(field, lookup.unreflectGetter(field), null, i));
+                }
+
+                Constructor<T> canonical = type.getDeclaredConstructor(types);
+                canonical.setAccessible(true);
+                this.constructor = lookup.unreflectConstructor(canonical)
+                        .asSpreader(Object[].class, components.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                List<Class<?>> hierarchy = new ArrayList<>();
+                for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                    hierarchy.add(0, current);
+                }
+                for (Class<?> current : hierarchy) {
+                    for (Field field : current.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+                        if (field.isAnnotationPresent(NBTIgnore.class)) continue;
+
+                        field.setAccessible(true);
+                        properties.add(property(field, lookup.unreflectGetter(field), lookup.unreflectSetter(field), -1));
+                    }
+                }
+
+                Constructor<T> empty = type.getDeclaredConstructor();
+                empty.setAccessible(true);
+                this.constructor = lookup.unreflectConstructor(empty).asType(MethodType.methodType(Object.class));
+            }
+            this.properties = properties.toArray(new Property[0]);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " needs a constructor without arguments to be mapped", e);
+        } catch (ReflectiveOperationException | InaccessibleObjectException e) {
+            throw new IllegalArgumentException("Can not map " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Gets the mapper for the class, which is built on first use and then cached.
+     *
+     * @throws IllegalArgumentException If the class can not be mapped (no usable constructor, or a field of an unsupported type).
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> NBTMapper<T> of(Class<T> type) {
+        return (NBTMapper<T>) MAPPERS.get(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public StorageTagCompound toCompound(T value) {
+        StorageTagCompound compound = new StorageTagCompound();
+        toCompound(value, compound);
+        return compound;
+    }
+
+    /**
+     * Creates a new instance from the compound.
+     */
+    public T fromCompound(StorageTagCompound compound) {
+        try {
+            CompactTagMap tags = compound.tags();
+            if (record) {
+                Object[] arguments = new Object[properties.length];
+                for (Property property : properties) arguments[property.component] = property.read(tags.get(property.key));
+                return type.cast(constructor.invokeExact(arguments));
+            }
+
+            Object instance = constructor.invokeExact();
+            for (Property property : properties) {
+                StorageBase tag = tags.get(property.key);
+                if (tag != null) property.set(instance, tag);
+            }
+            return type.cast(instance);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new IllegalStateException("Could not create " + type.getName(), throwable);
+        }
+    }
+
+    /**
+     * Writes the value as a root compound, without building the compound first. The result is the same as
+     * {@link CompressedStreamTools#writeTag(StorageBase, DataOutput)} with {@link #toCompound(Object)}.
+     */
+    public void write(T value, DataOutput output) throws IOException {
+        output.writeByte(10);
+        output.writeUTF("");
+        writePayload(value, output);
+    }
+
+    private void toCompound(Object value, StorageTagCompound compound) {
+        try {
+            for (Property property : properties) property.toTag(value, compound);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new IllegalStateException("Could not read " + type.getName(), throwable);
+        }
+    }
+
+    private void writePayload(Object value, DataOutput output) throws IOException {
+        try {
+            for (Property property : properties) property.write(value, output);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new IllegalStateException("Could not read " + type.getName(), throwable);
+        }
+        output.writeByte(0);
+    }
+
+    private static Property property(Field field, MethodHandle getter, MethodHandle setter, int component) {
+        NBTField name = field.getAnnotation(NBTField.class);
+        String key = (name == null) ? field.getName() : name.value();
+
+        Class<?> type = field.getType();
+        if (type.isPrimitive()) return new PrimitiveProperty(key, component, type, getter, setter);
+
+        Converter converter;
+        try {
+            converter = converter(field.getGenericType());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage() + " (field " + field.getDeclaringClass().getName() + "." + field.getName() + ")");
+        }
+        return new ObjectProperty(key, component, converter, getter, setter);
+    }
+
+    private static Converter converter(Type generic) {
+        if (generic instanceof ParameterizedType parameterized) {
+            Class<?> raw = (Class<?>) parameterized.getRawType();
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if (raw == List.class || raw == Collection.class || raw == ArrayList.class) return new ListConverter(converter(arguments[0]));
+            if (raw == Map.class || raw == LinkedHashMap.class) {
+                if (arguments[0] != String.class) throw new IllegalArgumentException("Only maps with string keys are supported, not " + generic);
+                return new MapConverter(converter(arguments[1]));
+            }
+            throw new IllegalArgumentException("Unsupported type " + generic);
+        }
+        if (!(generic instanceof Class<?> type)) throw new IllegalArgumentException("Unsupported type " + generic);
+
+        if (type == String.class) return Converter.STRING;
+        if (type == Integer.class) return Converter.INT;
+        if (type == Long.class) return Converter.LONG;
+        if (type == Double.class) return Converter.DOUBLE;
+        if (type == Float.class) return Converter.FLOAT;
+        if (type == Short.class) return Converter.SHORT;
+        if (type == Byte.class) return Converter.BYTE;
+        if (type == Boolean.class) return Converter.BOOLEAN;
+        if (type == UUID.class) return Converter.UUID;
+        if (type == byte[].class) return Converter.BYTE_ARRAY;
+        if (type == int[].class) return Converter.INT_ARRAY;
+        if (type == long[].class) return Converter.LONG_ARRAY;
+        if (type == boolean[].class) return Converter.BOOLEAN_ARRAY;
+        if (type == char[].class) return Converter.CHAR_ARRAY;
+        if (type == short[].class) return new PrimitiveListConverter(2);
+        if (type == float[].class) return new PrimitiveListConverter(5);
+        if (type == double[].class) return new PrimitiveListConverter(6);
+        if (type.isEnum()) return new EnumConverter(type);
+        if (StorageBase.class.isAssignableFrom(type)) return new TagConverter(type);
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java."))
+            throw new IllegalArgumentException("Unsupported type " + type.getName());
+        return new NestedConverter(type);
+    }
+
+    private abstract static class Property {
+        final String key;
+        // The position in the canonical constructor of a record
+        final int component;
+
+        Property(String key, int component) {
+            this.key = key;
+            this.component = component;
+        }
+
+        abstract void toTag(Object instance, StorageTagCompound compound) throws Throwable;
+
+        /**
+         * Writes the type, key and payload, or nothing if the value is null.
+         */
+        abstract void write(Object instance, DataOutput output) throws Throwable;
+
+        /**
+         * Gets the value for a record component, the tag is null if it is missing.
+         */
+        abstract Object read(StorageBase tag);
+
+        abstract void set(Object instance, StorageBase tag) throws Throwable;
+    }
+
+    /**
+     * A primitive field, the handles are adapted to the exact primitive type so the value is never boxed.
+     */
+    private static final class PrimitiveProperty extends Property {
+        private final char kind;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        PrimitiveProperty(String key, int component, Class<?> type, MethodHandle getter, MethodHandle setter) {
+            super(key, component);
+            this.kind = (type == boolean.class) ? 'Z' : (type == long.class) ? 'J' : type.getName().toUpperCase(Locale.ROOT).charAt(0);
+            this.getter = getter.asType(MethodType.methodType(type, Object.class));
+            this.setter = (setter == null) ? null : setter.asType(MethodType.methodType(void.class, Object.class, type));
+        }
+
+        @Override
+        void toTag(Object instance, StorageTagCompound compound) throws Throwable {
+            switch (kind) {
+                case 'Z' -> compound.setBoolean(key, (boolean) getter.invokeExact(instance));
+                case 'B' -> compound.setTag(key, new StorageTagByte((byte) getter.invokeExact(instance)));
+                case 'S' -> compound.setTag(key, new StorageTagShort((short) getter.invokeExact(instance)));
+                case 'I' -> compound.setTag(key, new StorageTagInt((int) getter.invokeExact(instance)));
+                case 'J' -> compound.setTag(key, new StorageTagLong((long) getter.invokeExact(instance)));
+                case 'F' -> compound.setTag(key, new StorageTagFloat((float) getter.invokeExact(instance)));
+                case 'D' -> compound.setTag(key, new StorageTagDouble((double) getter.invokeExact(instance)));
+                case 'C' -> compound.setTag(key, new StorageTagInt((char) getter.invokeExact(instance)));
+                default -> throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        void write(Object instance, DataOutput output) throws Throwable {
+            switch (kind) {
+                case 'Z' -> {
+                    header(output, 1);
+                    output.writeByte((boolean) getter.invokeExact(instance) ? 1 : 0);
+                }
+                case 'B' -> {
+                    header(output, 1);
+                    output.writeByte((byte) getter.invokeExact(instance));
+                }
+                case 'S' -> {
+                    header(output, 2);
+                    output.writeShort((short) getter.invokeExact(instance));
+                }
+                case 'I' -> {
+                    header(output, 3);
+                    output.writeInt((int) getter.invokeExact(instance));
+                }
+                case 'J' -> {
+                    header(output, 4);
+                    output.writeLong((long) getter.invokeExact(instance));
+                }
+                case 'F' -> {
+                    header(output, 5);
+                    output.writeFloat((float) getter.invokeExact(instance));
+                }
+                case 'D' -> {
+                    header(output, 6);
+                    output.writeDouble((double) getter.invokeExact(instance));
+                }
+                case 'C' -> {
+                    header(output, 3);
+                    output.writeInt((char) getter.invokeExact(instance));
+                }
+                default -> throw new IllegalStateException();
+            }
+        }
+
+        private void header(DataOutput output, int id) throws IOException {
+            output.writeByte(id);
+            output.writeUTF(key);
+        }
+
+        @Override
+        Object read(StorageBase tag) {
+            StoragePrimitive primitive = (tag instanceof StoragePrimitive value) ? value : null;
+            return switch (kind) {
+                case 'Z' -> primitive != null && primitive.getByte() != 0;
+                case 'B' -> primitive == null ? (byte) 0 : primitive.getByte();
+                case 'S' -> primitive == null ? (short) 0 : primitive.getShort();
+                case 'I' -> primitive == null ? 0 : primitive.getInt();
+                case 'J' -> primitive == null ? 0L : primitive.getLong();
+                case 'F' -> primitive == null ? 0F : primitive.getFloat();
+                case 'D' -> primitive == null ? 0D : primitive.getDouble();
+                case 'C' -> primitive == null ? (char) 0 : (char) primitive.getInt();
+                default -> throw new IllegalStateException();
+            };
+        }
+
+        @Override
+        void set(Object instance, StorageBase tag) throws Throwable {
+            if (!(tag instanceof StoragePrimitive primitive)) return;
+
+            switch (kind) {
+                case 'Z' -> setter.invokeExact(instance, primitive.getByte() != 0);
+                case 'B' -> setter.invokeExact(instance, primitive.getByte());
+                case 'S' -> setter.invokeExact(instance, primitive.getShort());
+                case 'I' -> setter.invokeExact(instance, primitive.getInt());
+                case 'J' -> setter.invokeExact(instance, primitive.getLong());
+                case 'F' -> setter.invokeExact(instance, primitive.getFloat());
+                case 'D' -> setter.invokeExact(instance, primitive.getDouble());
+                case 'C' -> setter.invokeExact(instance, (char) primitive.getInt());
+                default -> throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * An ignored record component, which is always created with 0/false/null.
+     */
+    private static final class IgnoredProperty extends Property {
+        private final Object value;
+
+        IgnoredProperty(int component, Class<?> type) {
+            super(null, component);
+            this.value = type.isPrimitive() ? zero(type) : null;
+        }
+
+        private static Object zero(Class<?> type) {
+            try {
+                return MethodHandles.zero(type).invoke();
+            } catch (Throwable throwable) {
+                throw new IllegalStateException(throwable);
+            }
+        }
+
+        @Override
+        void toTag(Object instance, StorageTagCompound compound) {
+        }
+
+        @Override
+        void write(Object instance, DataOutput output) {
+        }
+
+        @Override
+        Object read(StorageBase tag) {
+            return value;
+        }
+
+        @Override
+        void set(Object instance, StorageBase tag) {
+        }
+    }
+
+    private static final class ObjectProperty extends Property {
+        private final Converter converter;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        ObjectProperty(String key, int component, Converter converter, MethodHandle getter, MethodHandle setter) {
+            super(key, component);
+            this.converter = converter;
+            this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = (setter == null) ? null : setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+
+        @Override
+        void toTag(Object instance, StorageTagCompound compound) throws Throwable {
+            Object value = getter.invokeExact(instance);
+            if (value == null) return;
+
+            compound.setTag(key, converter.toTag(value));
+            if (converter == Converter.BOOLEAN) compound.tags().markBoolean(key);
+        }
+
+        @Override
+        void write(Object instance, DataOutput output) throws Throwable {
+            Object value = getter.invokeExact(instance);
+            if (value == null) return;
+
+            output.writeByte(converter.id(value));
+            output.writeUTF(key);
+            converter.write(value, output);
+        }
+
+        @Override
+        Object read(StorageBase tag) {
+            return (tag == null) ? null : converter.fromTag(tag);
+        }
+
+        @Override
+        void set(Object instance, StorageBase tag) throws Throwable {
+            Object value = converter.fromTag(tag);
+            if (value != null) setter.invokeExact(instance, value);
+        }
+    }
+
+    /**
+     * Converts a (non-primitive) value to and from a tag.
+     */
+    private interface Converter {
+        Converter STRING = new SimpleConverter(8) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagString((String) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StorageTagString) ? tag.getString() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeUTF((String) value);
+            }
+        };
+        Converter BOOLEAN = new SimpleConverter(1) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagByte((byte) ((Boolean) value ? 1 : 0));
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getByte() != 0 : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeByte((Boolean) value ? 1 : 0);
+            }
+        };
+        Converter BYTE = new SimpleConverter(1) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagByte((Byte) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getByte() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeByte((Byte) value);
+            }
+        };
+        Converter SHORT = new SimpleConverter(2) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagShort((Short) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getShort() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeShort((Short) value);
+            }
+        };
+        Converter INT = new SimpleConverter(3) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagInt((Integer) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getInt() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeInt((Integer) value);
+            }
+        };
+        Converter LONG = new SimpleConverter(4) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagLong((Long) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getLong() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeLong((Long) value);
+            }
+        };
+        Converter FLOAT = new SimpleConverter(5) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagFloat((Float) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getFloat() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeFloat((Float) value);
+            }
+        };
+        Converter DOUBLE = new SimpleConverter(6) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagDouble((Double) value);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StoragePrimitive primitive) ? primitive.getDouble() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeDouble((Double) value);
+            }
+        };
+        Converter UUID = new SimpleConverter(8) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagString(value.toString());
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                if (!(tag instanceof StorageTagString)) return null;
+                try {
+                    return java.util.UUID.fromString(tag.getString());
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeUTF(value.toString());
+            }
+        };
+        Converter BYTE_ARRAY = new SimpleConverter(7) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagByteArray(((byte[]) value).clone());
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StorageTagByteArray array) ? array.getByteArray().clone() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                byte[] data = (byte[]) value;
+                output.writeInt(data.length);
+                output.write(data);
+            }
+        };
+        Converter INT_ARRAY = new SimpleConverter(11) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagIntArray(((int[]) value).clone());
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StorageTagIntArray array) ? array.getIntArray().clone() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                int[] data = (int[]) value;
+                output.writeInt(data.length);
+                for (int element : data) output.writeInt(element);
+            }
+        };
+        Converter LONG_ARRAY = new SimpleConverter(12) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagLongArray(((long[]) value).clone());
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StorageTagLongArray array) ? array.getList().clone() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                long[] data = (long[]) value;
+                output.writeInt(data.length);
+                for (long element : data) output.writeLong(element);
+            }
+        };
+
+        Converter BOOLEAN_ARRAY = new SimpleConverter(7) {
+            @Override
+            public StorageBase toTag(Object value) {
+                boolean[] data = (boolean[]) value;
+                byte[] bytes = new byte[data.length];
+                for (int i = 0; i < data.length; i++) bytes[i] = (byte) (data[i] ? 1 : 0);
+                return new StorageTagByteArray(bytes);
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                if (!(tag instanceof StorageTagByteArray array)) return null;
+
+                byte[] bytes = array.getByteArray();
+                boolean[] data = new boolean[bytes.length];
+                for (int i = 0; i < bytes.length; i++) data[i] = bytes[i] != 0;
+                return data;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                boolean[] data = (boolean[]) value;
+                output.writeInt(data.length);
+                for (boolean element : data) output.writeByte(element ? 1 : 0);
+            }
+        };
+        Converter CHAR_ARRAY = new SimpleConverter(8) {
+            @Override
+            public StorageBase toTag(Object value) {
+                return new StorageTagString(new String((char[]) value));
+            }
+
+            @Override
+            public Object fromTag(StorageBase tag) {
+                return (tag instanceof StorageTagString) ? tag.getString().toCharArray() : null;
+            }
+
+            @Override
+            public void write(Object value, DataOutput output) throws IOException {
+                output.writeUTF(new String((char[]) value));
+            }
+        };
+
+        byte id(Object value);
+
+        StorageBase toTag(Object value);
+
+        /**
+         * Gets the value of the tag, or null if it is a different type of tag.
+         */
+        Object fromTag(StorageBase tag);
+
+        void write(Object value, DataOutput output) throws IOException;
+    }
+
+    private abstract static class SimpleConverter implements Converter {
+        private final byte id;
+
+        SimpleConverter(int id) {
+            this.id = (byte) id;
+        }
+
+        @Override
+        public byte id(Object value) {
+            return id;
+        }
+    }
+
+    private static final class EnumConverter extends SimpleConverter {
+        private final Class<?> type;
+
+        EnumConverter(Class<?> type) {
+            super(8);
+            this.type = type;
+        }
+
+        @Override
+        public StorageBase toTag(Object value) {
+            return new StorageTagString(((Enum<?>) value).name());
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Object fromTag(StorageBase tag) {
+            if (!(tag instanceof StorageTagString)) return null;
+            try {
+                return Enum.valueOf((Class) type, tag.getString());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void write(Object value, DataOutput output) throws IOException {
+            output.writeUTF(((Enum<?>) value).name());
+        }
+    }
+
+    private static final class TagConverter implements Converter {
+        private final Class<?> type;
+
+        TagConverter(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public byte id(Object value) {
+            return ((StorageBase) value).getId();
+        }
+
+        @Override
+        public StorageBase toTag(Object value) {
+            return ((StorageBase) value).copy();
+        }
+
+        @Override
+        public Object fromTag(StorageBase tag) {
+            return type.isInstance(tag) ? tag.copy() : null;
+        }
+
+        @Override
+        public void write(Object value, DataOutput output) throws IOException {
+            ((StorageBase) value).write(output);
+        }
+    }
+
+    /**
+     * A field of another mapped class, the mapper is looked up on first use so classes can refer to themselves.
+     */
+    private static final class NestedConverter extends SimpleConverter {
+        private final Class<?> type;
+        private NBTMapper<?> mapper;
+
+        NestedConverter(Class<?> type) {
+            super(10);
+            this.type = type;
+        }
+
+        private NBTMapper<?> mapper() {
+            NBTMapper<?> mapper = this.mapper;
+            if (mapper == null) this.mapper = mapper = NBTMapper.of(type);
+            return mapper;
+        }
+
+        @Override
+        public StorageBase toTag(Object value) {
+            StorageTagCompound compound = new StorageTagCompound();
+            mapper().toCompound(value, compound);
+            return compound;
+        }
+
+        @Override
+        public Object fromTag(StorageBase tag) {
+            return (tag instanceof StorageTagCompound compound) ? mapper().fromCompound(compound) : null;
+        }
+
+        @Override
+        public void write(Object value, DataOutput output) throws IOException {
+            mapper().writePayload(value, output);
+        }
+    }
+
+    /**
+     * A {@code short[]}, {@code float[]} or {@code double[]}, which have no array tag and are stored as a list.
+     */
+    private static final class PrimitiveListConverter extends SimpleConverter {
+        private final byte element;
+
+        PrimitiveListConverter(int element) {
+            super(9);
+            this.element = (byte) element;
+        }
+
+        @Override
+        public StorageBase toTag(Object value) {
+            StorageTagList list = new StorageTagList();
+            switch (element) {
+                case 2 -> {
+                    for (short item : (short[]) value) list.appendTag(new StorageTagShort(item));
+                }
+                case 5 -> {
+                    for (float item : (float[]) value) list.appendTag(new StorageTagFloat(item));
+                }
+                default -> {
+                    for (double item : (double[]) value) list.appendTag(new StorageTagDouble(item));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public Object fromTag(StorageBase tag) {
+            if (!(tag instanceof StorageTagList list)) return null;
+            List<StorageBase> tags = list.tags();
+            for (StorageBase item : tags) {
+                if (!(item instanceof StoragePrimitive)) return null;
+            }
+
+            int size = tags.size();
+            switch (element) {
+                case 2 -> {
+                    short[] data = new short[size];
+                    for (int i = 0; i < size; i++) data[i] = ((StoragePrimitive) tags.get(i)).getShort();
+                    return data;
+                }
+                case 5 -> {
+                    float[] data = new float[size];
+                    for (int i = 0; i < size; i++) data[i] = ((StoragePrimitive) tags.get(i)).getFloat();
+                    return data;
+                }
+                default -> {
+                    double[] data = new double[size];
+                    for (int i = 0; i < size; i++) data[i] = ((StoragePrimitive) tags.get(i)).getDouble();
+                    return data;
+                }
+            }
+        }
+
+        @Override
+        public void write(Object value, DataOutput output) throws IOException {
+            int size = Array.getLength(value);
+            // An empty list has no element type, the same as an empty StorageTagList
+            output.writeByte(size == 0 ? 0 : element);
+            output.writeInt(size);
+            switch (element) {
+                case 2 -> {
+                    for (short item : (short[]) value) output.writeShort(item);
+                }
+                case 5 -> {
+                    for (float item : (float[]) value) output.writeFloat(item);
+                }
+                default -> {
+                    for (double item : (double[]) value) output.writeDouble(item);
+                }
+            }
+        }
+    }
+
+    private static final class ListConverter extends SimpleConverter {
+        private final Converter element;
+
+        ListConverter(Converter element) {
+            super(9);
+            this.element = element;
+        }
+
+        @Override
+        public StorageBase toTag(Object value) {
+            StorageTagList list = new StorageTagList();
+            for (Object item : (Collection<?>) value) {
+                if (item != null) list.appendTag(element.toTag(item));
+            }
+            return list;
+        }
+
+        @Override
+        public Object fromTag(StorageBase tag) {
+            if (!(tag instanceof StorageTagList list)) return null;
+
+            List<Object> values = new ArrayList<>(list.tagCount());
+            for (StorageBase item : list.tags()) {
+                Object value = element.fromTag(item);
+                if (value != null) values.add(value);
+            }
+            return values;
+        }
+
+        @Override
+        public void write(Object value, DataOutput output) throws IOException {
+            Collection<?> items = (Collection<?>) value;
+            byte type = 0;
+            int size = 0;
+            for (Object item : items) {
+                if (item == null) continue;
+                if (size++ == 0) type = element.id(item);
+            }
+
+            output.writeByte(type);
+            output.writeInt(size);
+            for (Object item : items) {
+                if (item != null) element.write(item, output);
+            }
+        }
+    }
+
+    private static final class MapConverter extends SimpleConverter {
+        private final Converter value;
+
+        MapConverter(Converter value) {
+            super(10);
+            this.value = value;
+        }
+
+        @Override
+        public StorageBase toTag(Object map) {
+            StorageTagCompound compound = new StorageTagCompound();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) compound.setTag((String) entry.getKey(), value.toTag(entry.getValue()));
+            }
+            return compound;
+        }
+
+        @Override
+        public Object fromTag(StorageBase tag) {
+            if (!(tag instanceof StorageTagCompound compound)) return null;
+
+            CompactTagMap tags = compound.tags();
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < tags.size(); i++) {
+                Object converted = value.fromTag(tags.valueAt(i));
+                if (converted != null) map.put(tags.keyAt(i), converted);
+            }
+            return map;
+        }
+
+        @Override
+        public void write(Object map, DataOutput output) throws IOException {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) continue;
+
+                output.writeByte(value.id(entry.getValue()));
+                output.writeUTF((String) entry.getKey());
+                value.write(entry.getValue(), output);
+            }
+            output.writeByte(0);
+        }
+    }
+}
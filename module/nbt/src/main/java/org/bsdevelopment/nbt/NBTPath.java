@@ -0,0 +1,301 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled path to tags nested in a compound, such as {@code stats.kills}, {@code inventory[0].id}
+ * or {@code inventory[*].id}.
+ * <p>
+ * Steps are separated by dots, keys that contain a {@code .}, {@code [} or {@code "} (or are just {@code *}) can be
+ * written in double quotes ({@code "my.key".value}). {@code [n]} selects an element of a list and
+ * {@code [*]} every element, a {@code *} key selects every tag of a compound.
+ * <p>
+ * Paths can be resolved against a tag, or straight against uncompressed NBT in a {@link ByteBuffer}, in
+ * which case only the matching tags are decoded. Use {@link NBTPathSet} to get many paths in one pass.
+ * Returned compounds and lists are the tags themselves, they should be copied before they are changed.
+ */
+public final class NBTPath {
+    static final byte KEY = 0;
+    static final byte ANY_KEY = 1;
+    static final byte INDEX = 2;
+    static final byte ANY_INDEX = 3;
+
+    private final String path;
+    final Step[] steps;
+    private final boolean wildcards;
+    // Built when the path is first used on a buffer
+    private NBTPathSet set;
+
+    private NBTPath(String path, Step[] steps) {
+        this.path = path;
+        this.steps = steps;
+
+        boolean wildcards = false;
+        for (Step step : steps) wildcards |= (step.kind == ANY_KEY) || (step.kind == ANY_INDEX);
+        this.wildcards = wildcards;
+    }
+
+    /**
+     * Parses the path, an empty path points at the root tag itself.
+     */
+    public static NBTPath compile(String path) throws NBTException {
+        List<Step> steps = new ArrayList<>();
+        int cursor = 0;
+        int length = path.length();
+        boolean expectKey = true;
+
+        while (cursor < length) {
+            char c = path.charAt(cursor);
+            if (c == '[') {
+                int end = path.indexOf(']', cursor);
+                if (end < 0) throw new NBTException("Expected ']'", path, length);
+
+                String value = path.substring(cursor + 1, end);
+                if (value.equals("*")) {
+                    steps.add(new Step(ANY_INDEX, null, -1));
+                } else {
+                    try {
+                        int index = Integer.parseInt(value);
+                        if (index < 0) throw new NumberFormatException();
+                        steps.add(new Step(INDEX, null, index));
+                    } catch (NumberFormatException e) {
+                        throw new NBTException("Invalid list index '" + value + "'", path, cursor + 1);
+                    }
+                }
+                cursor = end + 1;
+                expectKey = false;
+            } else if (c == '.' && !expectKey) {
+                cursor++;
+                expectKey = true;
+                if (cursor == length) throw new NBTException("Expected key", path, cursor);
+            } else if (expectKey) {
+                int start = cursor;
+                String key;
+                if (c == '"') {
+                    StringBuilder builder = new StringBuilder();
+                    cursor++;
+                    while (true) {
+                        if (cursor >= length) throw new NBTException("Unclosed quoted key", path, start);
+                        char next = path.charAt(cursor++);
+                        if (next == '"') break;
+                        if (next == '\\') {
+                            if (cursor >= length) throw new NBTException("Unclosed quoted key", path, start);
+                            next = path.charAt(cursor++);
+                        }
+                        builder.append(next);
+                    }
+                    key = builder.toString();
+                    steps.add(new Step(KEY, key, -1));
+                } else {
+                    while (cursor < length && path.charAt(cursor) != '.' && path.charAt(cursor) != '[') cursor++;
+                    key = path.substring(start, cursor);
+                    if (key.isEmpty()) throw new NBTException("Expected key", path, start);
+                    steps.add(key.equals("*") ? new Step(ANY_KEY, null, -1) : new Step(KEY, key, -1));
+                }
+                expectKey = false;
+            } else {
+                throw new NBTException("Expected '.' or '['", path, cursor);
+            }
+        }
+        return new NBTPath(path, steps.toArray(new Step[0]));
+    }
+
+    /**
+     * Whether the path contains a {@code *} or {@code [*]} step, and so can match more than one tag.
+     */
+    public boolean hasWildcards() {
+        return wildcards;
+    }
+
+    /**
+     * Gets the first tag the path points at, or null if there is none.
+     */
+    public StorageBase get(StorageBase root) {
+        if (wildcards) {
+            List<StorageBase> tags = getAll(root);
+            return tags.isEmpty() ? null : tags.get(0);
+        }
+
+        StorageBase tag = root;
+        for (Step step : steps) {
+            tag = step.follow(tag);
+            if (tag == null) return null;
+        }
+        return tag;
+    }
+
+    /**
+     * Gets every tag the path points at, in the order they are stored in.
+     */
+    public List<StorageBase> getAll(StorageBase root) {
+        List<StorageBase> tags = new ArrayList<>();
+        collect(root, 0, tags);
+        return tags;
+    }
+
+    /**
+     * Gets the first tag the path points at in the uncompressed NBT data (a root tag at the position of the buffer),
+     * decoding only that tag. The position of the buffer is not modified.
+     */
+    public StorageBase get(ByteBuffer buffer) throws IOException {
+        return pathSet().extractFirst(buffer)[0];
+    }
+
+    /**
+     * Gets every tag the path points at in the uncompressed NBT data, see {@link #get(ByteBuffer)}.
+     */
+    public List<StorageBase> getAll(ByteBuffer buffer) throws IOException {
+        return pathSet().extract(buffer).get(0);
+    }
+
+    public int getInt(StorageBase root, int fallback) {
+        return (get(root) instanceof StoragePrimitive primitive) ? primitive.getInt() : fallback;
+    }
+
+    public long getLong(StorageBase root, long fallback) {
+        return (get(root) instanceof StoragePrimitive primitive) ? primitive.getLong() : fallback;
+    }
+
+    public double getDouble(StorageBase root, double fallback) {
+        return (get(root) instanceof StoragePrimitive primitive) ? primitive.getDouble() : fallback;
+    }
+
+    public String getString(StorageBase root, String fallback) {
+        return (get(root) instanceof StorageTagString string) ? string.getString() : fallback;
+    }
+
+    @Override
+    public boolean equals(Object instance) {
+        return instance instanceof NBTPath other && Arrays.equals(other.steps, steps);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(steps);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Appends a key to a path string, quoting it when needed.
+     */
+    static String append(String path, String key) {
+        boolean quote = key.isEmpty() || key.equals("*") || key.indexOf('.') >= 0 || key.indexOf('[') >= 0 || key.indexOf('"') >= 0;
+        if (quote) key = '"' + key.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        return path.isEmpty() ? key : path + '.' + key;
+    }
+
+    private void collect(StorageBase tag, int step, List<StorageBase> tags) {
+        if (step == steps.length) {
+            tags.add(tag);
+            return;
+        }
+
+        Step current = steps[step];
+        switch (current.kind) {
+            case ANY_KEY -> {
+                if (tag instanceof StorageTagCompound compound) {
+                    CompactTagMap map = compound.tags();
+                    for (int i = 0; i < map.size(); i++) collect(map.valueAt(i), step + 1, tags);
+                }
+            }
+            case ANY_INDEX -> {
+                if (tag instanceof StorageTagList list) {
+                    for (StorageBase child : list.tags()) collect(child, step + 1, tags);
+                }
+            }
+            default -> {
+                StorageBase child = current.follow(tag);
+                if (child != null) collect(child, step + 1, tags);
+            }
+        }
+    }
+
+    private NBTPathSet pathSet() {
+        NBTPathSet set = this.set;
+        if (set == null) {
+            set = new NBTPathSet(this);
+            this.set = set;
+        }
+        return set;
+    }
+
+    /**
+     * A single step of a path. The position of a key is remembered, as compounds read from the same data
+     * usually have their keys in the same order, in which case the key is found without a lookup.
+     */
+    static final class Step {
+        final byte kind;
+        final String key;
+        // The key in modified UTF-8, to compare keys in a buffer without decoding them
+        final byte[] utf;
+        final int index;
+        private int hint = 0;
+
+        Step(byte kind, String key, int index) {
+            this.kind = kind;
+            this.key = key;
+            this.utf = (key == null) ? null : encodeUTF(key);
+            this.index = index;
+        }
+
+        /**
+         * Gets the child for a KEY or INDEX step, or null if there is none.
+         */
+        StorageBase follow(StorageBase tag) {
+            if (kind == KEY) {
+                if (!(tag instanceof StorageTagCompound compound)) return null;
+
+                CompactTagMap map = compound.tags();
+                int hint = this.hint;
+                if (hint < map.size() && key.equals(map.keyAt(hint))) return map.valueAt(hint);
+
+                int position = map.indexOf(key);
+                if (position < 0) return null;
+                this.hint = position;
+                return map.valueAt(position);
+            }
+
+            if (!(tag instanceof StorageTagList list)) return null;
+            List<StorageBase> tags = list.tags();
+            return (index < tags.size()) ? tags.get(index) : null;
+        }
+
+        boolean matches(Step other) {
+            return kind == other.kind && index == other.index && (key == null ? other.key == null : key.equals(other.key));
+        }
+
+        @Override
+        public boolean equals(Object instance) {
+            return instance instanceof Step other && matches(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return kind * 31 + index + (key == null ? 0 : key.hashCode());
+        }
+
+        private static byte[] encodeUTF(String key) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + 2);
+                new DataOutputStream(bytes).writeUTF(key);
+                return Arrays.copyOfRange(bytes.toByteArray(), 2, bytes.size());
+            } catch (IOException e) {
+                // Only thrown for keys over 65535 bytes, which can not be stored either
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
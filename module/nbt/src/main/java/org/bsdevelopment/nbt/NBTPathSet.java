@@ -0,0 +1,189 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of {@link NBTPath paths} that are all resolved in a single pass over a tag or over uncompressed NBT data.
+ * <p>
+ * The paths are merged into a tree, so a shared prefix such as {@code stats} in {@code stats.kills} and
+ * {@code stats.deaths} is only followed once. When reading from a buffer, only the tags the paths point at are
+ * decoded and everything else is skipped. If none of the paths have wildcards, reading stops as soon as every
+ * path was found.
+ */
+public final class NBTPathSet {
+    private final NBTPath[] paths;
+    private final Node root = new Node(null);
+    private final boolean exact;
+
+    public NBTPathSet(NBTPath... paths) {
+        this.paths = paths.clone();
+
+        boolean exact = true;
+        for (int i = 0; i < paths.length; i++) {
+            Node node = root;
+            for (NBTPath.Step step : paths[i].steps) node = node.child(step);
+            node.targets = Arrays.copyOf(node.targets, node.targets.length + 1);
+            node.targets[node.targets.length - 1] = i;
+            exact &= !paths[i].hasWildcards();
+        }
+        this.exact = exact;
+    }
+
+    public static NBTPathSet compile(String... paths) throws NBTException {
+        NBTPath[] compiled = new NBTPath[paths.length];
+        for (int i = 0; i < paths.length; i++) compiled[i] = NBTPath.compile(paths[i]);
+        return new NBTPathSet(compiled);
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public NBTPath getPath(int index) {
+        return paths[index];
+    }
+
+    /**
+     * Gets the tags every path points at, in the same order as the paths.
+     */
+    public List<List<StorageBase>> extract(StorageBase root) {
+        Collector collector = new Collector(paths.length, exact);
+        collect(this.root, root, collector);
+        return collector.toList();
+    }
+
+    /**
+     * Gets the first tag every path points at (or null), in the same order as the paths.
+     */
+    public StorageBase[] extractFirst(StorageBase root) {
+        Collector collector = new Collector(paths.length, exact);
+        collect(this.root, root, collector);
+        return collector.first();
+    }
+
+    /**
+     * Gets the tags every path points at in the uncompressed NBT data (a root tag at the position of the buffer),
+     * in the same order as the paths. The position of the buffer is not modified.
+     */
+    public List<List<StorageBase>> extract(ByteBuffer buffer) throws IOException {
+        Collector collector = new Collector(paths.length, exact);
+        new NBTBufferReader(buffer).extract(root, collector);
+        return collector.toList();
+    }
+
+    /**
+     * Gets the first tag every path points at (or null) in the uncompressed NBT data, see {@link #extract(ByteBuffer)}.
+     */
+    public StorageBase[] extractFirst(ByteBuffer buffer) throws IOException {
+        Collector collector = new Collector(paths.length, exact);
+        new NBTBufferReader(buffer).extract(root, collector);
+        return collector.first();
+    }
+
+    /**
+     * Adds the tag to the targets of the node, and follows the children of the node from it.
+     */
+    static void collect(Node node, StorageBase tag, Collector collector) {
+        for (int target : node.targets) collector.add(target, tag);
+
+        for (Node child : node.children) {
+            if (collector.isDone()) return;
+
+            switch (child.step.kind) {
+                case NBTPath.ANY_KEY -> {
+                    if (tag instanceof StorageTagCompound compound) {
+                        CompactTagMap map = compound.tags();
+                        for (int i = 0; i < map.size(); i++) collect(child, map.valueAt(i), collector);
+                    }
+                }
+                case NBTPath.ANY_INDEX -> {
+                    if (tag instanceof StorageTagList list) {
+                        for (StorageBase element : list.tags()) collect(child, element, collector);
+                    }
+                }
+                default -> {
+                    StorageBase next = child.step.follow(tag);
+                    if (next != null) collect(child, next, collector);
+                }
+            }
+        }
+    }
+
+    static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        final NBTPath.Step step;
+        Node[] children = NO_CHILDREN;
+        // The indexes of the paths that end at this node
+        int[] targets = new int[0];
+
+        private Node(NBTPath.Step step) {
+            this.step = step;
+        }
+
+        private Node child(NBTPath.Step step) {
+            for (Node child : children) {
+                if (child.step.matches(step)) return child;
+            }
+
+            Node child = new Node(step);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+    }
+
+    /**
+     * The tags found for every path of one extraction.
+     */
+    static final class Collector {
+        private final List<StorageBase>[] results;
+        // The amount of paths that were not found yet, or -1 if there are wildcards and every tag has to be visited
+        private int remaining;
+
+        private Collector(int size, boolean exact) {
+            // Generic arrays can not be created, the array only ever holds lists of tags
+            @SuppressWarnings("unchecked")
+            List<StorageBase>[] results = (List<StorageBase>[]) new List<?>[size];
+            this.results = results;
+            this.remaining = exact ? size : -1;
+        }
+
+        void add(int target, StorageBase tag) {
+            List<StorageBase> list = results[target];
+            if (list == null) {
+                results[target] = list = new ArrayList<>(1);
+                if (remaining > 0) remaining--;
+            }
+            list.add(tag);
+        }
+
+        /**
+         * Whether every path was found, so the rest of the data does not have to be visited.
+         */
+        boolean isDone() {
+            return remaining == 0;
+        }
+
+        private List<List<StorageBase>> toList() {
+            List<List<StorageBase>> list = new ArrayList<>(results.length);
+            for (List<StorageBase> result : results) list.add(result == null ? Collections.emptyList() : result);
+            return list;
+        }
+
+        private StorageBase[] first() {
+            StorageBase[] first = new StorageBase[results.length];
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != null) first[i] = results[i].get(0);
+            }
+            return first;
+        }
+    }
+}
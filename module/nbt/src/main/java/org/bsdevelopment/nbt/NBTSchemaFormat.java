@@ -0,0 +1,466 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTSizeTracker;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An alternative binary encoding of tags for data with many compounds of the same shape, such as a list of
+ * 100k player records. It is written with {@link CompressedStreamTools#writeSchemaCompressed} and read back by
+ * the regular {@link CompressedStreamTools#readCompressed(java.io.InputStream)}, which detects it by its first byte.
+ * <p>
+ * Compared to classic NBT:
+ * <ul>
+ *     <li>Every key is written once, after that it is referred to by its number in a shared key table.</li>
+ *     <li>The keys and types of a compound (its shape) are also written once, after that a compound only writes the
+ *     number of its shape followed by its values.</li>
+ *     <li>Lists of compounds are written as typed columns (all values of the first key, then of the second key...),
+ *     with a bitmap per compound of which keys it has, when the compounds have their keys in a compatible order.</li>
+ *     <li>Ints, longs and lengths are written as variable-length numbers.</li>
+ * </ul>
+ * The tables are built while writing, so the data is still written and read in a single pass.
+ */
+public final class NBTSchemaFormat {
+    /**
+     * The first byte of the encoding, which is not a valid tag type so classic NBT is never mistaken for it.
+     */
+    public static final byte MARKER = 0x53;
+    private static final byte VERSION = 1;
+
+    private static final byte ROWS = 0;
+    private static final byte COLUMNS = 1;
+
+    private NBTSchemaFormat() {
+    }
+
+    /**
+     * Writes the tag (including the marker) to the output.
+     */
+    public static void write(StorageBase tag, DataOutput output) throws IOException {
+        output.writeByte(MARKER);
+        output.writeByte(VERSION);
+        output.writeByte(tag.getId());
+        if (tag.getId() != 0) new Writer(output).writeValue(tag);
+    }
+
+    /**
+     * Reads a tag written with {@link #write(StorageBase, DataOutput)}, including the marker.
+     */
+    public static StorageBase read(DataInput input) throws IOException {
+        return read(input, NBTSizeTracker.INFINITE);
+    }
+
+    /**
+     * Reads a tag written with {@link #write(StorageBase, DataOutput)}, including the marker, within the limits of the tracker.
+     * The tracker counts the bytes of this encoding, rather than those of classic NBT.
+     */
+    public static StorageBase read(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
+        byte marker = input.readByte();
+        if (marker != MARKER) throw new IOException("Data is not in the schema format");
+        return readAfterMarker(input, sizeTracker);
+    }
+
+    /**
+     * Reads the data after the marker, for readers that already checked the first byte.
+     */
+    static StorageBase readAfterMarker(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
+        byte version = input.readByte();
+        if (version != VERSION) throw new IOException("Unsupported schema format version " + version);
+
+        byte id = input.readByte();
+        sizeTracker.account(3, 0);
+        if (id == 0) return new StorageTagEnd();
+        return new Reader(input, sizeTracker).readValue(id, 0);
+    }
+
+    /**
+     * The keys and types of a compound, in order.
+     */
+    private record Shape(int[] keys, byte[] types) {
+        @Override
+        public boolean equals(Object instance) {
+            return instance instanceof Shape other && Arrays.equals(keys, other.keys) && Arrays.equals(types, other.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(keys) + Arrays.hashCode(types);
+        }
+    }
+
+    private static final class Writer {
+        private final DataOutput output;
+        private final Map<String, Integer> keys = new HashMap<>();
+        private final Map<Shape, Integer> shapes = new HashMap<>();
+
+        private Writer(DataOutput output) {
+            this.output = output;
+        }
+
+        private void writeValue(StorageBase tag) throws IOException {
+            switch (tag.getId()) {
+                case 1 -> output.writeByte(((StorageTagByte) tag).getByte());
+                case 2 -> output.writeShort(((StorageTagShort) tag).getShort());
+                case 3 -> writeVarLong(zigZag(((StorageTagInt) tag).getInt()));
+                case 4 -> writeVarLong(zigZag(((StorageTagLong) tag).getLong()));
+                case 5 -> output.writeFloat(((StorageTagFloat) tag).getFloat());
+                case 6 -> output.writeDouble(((StorageTagDouble) tag).getDouble());
+                case 7 -> {
+                    byte[] data = ((StorageTagByteArray) tag).getByteArray();
+                    writeVarLong(data.length);
+                    output.write(data);
+                }
+                case 8 -> output.writeUTF(tag.getString());
+                case 9 -> writeList(((StorageTagList) tag).tags());
+                case 10 -> writeCompound(((StorageTagCompound) tag).tags());
+                case 11 -> {
+                    int[] data = ((StorageTagIntArray) tag).getIntArray();
+                    writeVarLong(data.length);
+                    for (int value : data) output.writeInt(value);
+                }
+                case 12 -> {
+                    long[] data = ((StorageTagLongArray) tag).getList();
+                    writeVarLong(data.length);
+                    for (long value : data) output.writeLong(value);
+                }
+                default -> throw new IOException("Unknown tag type " + tag.getId());
+            }
+        }
+
+        private void writeCompound(CompactTagMap tags) throws IOException {
+            int size = tags.size();
+            int[] keyIds = new int[size];
+            byte[] types = new byte[size];
+            for (int i = 0; i < size; i++) {
+                Integer id = keys.get(tags.keyAt(i));
+                keyIds[i] = (id == null) ? -1 : id;
+                types[i] = tags.valueAt(i).getId();
+            }
+
+            writeShape(tags, keyIds, types);
+            for (int i = 0; i < size; i++) writeValue(tags.valueAt(i));
+        }
+
+        /**
+         * Writes the number of the shape, followed by its definition if it is new. Keys that are new have an id of -1.
+         */
+        private void writeShape(CompactTagMap tags, int[] keyIds, byte[] types) throws IOException {
+            boolean newKeys = false;
+            for (int id : keyIds) newKeys |= (id < 0);
+
+            Integer shape = newKeys ? null : shapes.get(new Shape(keyIds, types));
+            if (shape != null) {
+                writeVarLong(shape);
+                return;
+            }
+
+            writeVarLong(shapes.size());
+            writeVarLong(keyIds.length);
+            for (int i = 0; i < keyIds.length; i++) {
+                keyIds[i] = writeKey(tags.keyAt(i));
+                output.writeByte(types[i]);
+            }
+            shapes.put(new Shape(keyIds, types), shapes.size());
+        }
+
+        /**
+         * Writes the number of the key, followed by the key itself if it is new.
+         */
+        private int writeKey(String key) throws IOException {
+            Integer id = keys.get(key);
+            if (id != null) {
+                writeVarLong(id);
+                return id;
+            }
+
+            id = keys.size();
+            writeVarLong(id);
+            output.writeUTF(key);
+            keys.put(key, id);
+            return id;
+        }
+
+        private void writeList(List<StorageBase> tags) throws IOException {
+            byte type = tags.isEmpty() ? 0 : tags.get(0).getId();
+            output.writeByte(type);
+            writeVarLong(tags.size());
+            if (tags.isEmpty()) return;
+
+            if (type == 10 && tags.size() > 1) {
+                Columns columns = Columns.of(tags);
+                if (columns != null) {
+                    output.writeByte(COLUMNS);
+                    writeColumns(tags, columns);
+                    return;
+                }
+                output.writeByte(ROWS);
+            }
+            for (StorageBase tag : tags) writeValue(tag);
+        }
+
+        private void writeColumns(List<StorageBase> tags, Columns columns) throws IOException {
+            int fields = columns.keys.size();
+            writeVarLong(fields);
+            for (int i = 0; i < fields; i++) {
+                writeKey(columns.keys.get(i));
+                output.writeByte(columns.types.get(i));
+            }
+
+            // A bitmap per compound of the columns it has values in
+            byte[] bitmap = new byte[(fields + 7) >> 3];
+            for (StorageBase tag : tags) {
+                CompactTagMap compound = ((StorageTagCompound) tag).tags();
+                Arrays.fill(bitmap, (byte) 0);
+                for (int i = 0; i < compound.size(); i++) {
+                    int column = columns.index.get(compound.keyAt(i));
+                    bitmap[column >> 3] |= (byte) (1 << (column & 7));
+                }
+                output.write(bitmap);
+            }
+
+            for (int i = 0; i < fields; i++) {
+                String key = columns.keys.get(i);
+                for (StorageBase tag : tags) {
+                    StorageBase value = ((StorageTagCompound) tag).tags().get(key);
+                    if (value != null) writeValue(value);
+                }
+            }
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                output.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            output.writeByte((int) value);
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    /**
+     * The keys of a list of compounds as columns, only possible when every compound has its keys in the same relative
+     * order and every key always has the same type, so the order of the keys can be restored when reading.
+     */
+    private record Columns(List<String> keys, List<Byte> types, Map<String, Integer> index) {
+        private static Columns of(List<StorageBase> tags) {
+            List<String> keys = new ArrayList<>();
+            List<Byte> types = new ArrayList<>();
+            Map<String, Integer> columns = new HashMap<>();
+
+            for (StorageBase tag : tags) {
+                CompactTagMap compound = ((StorageTagCompound) tag).tags();
+                int previous = -1;
+                for (int i = 0; i < compound.size(); i++) {
+                    String key = compound.keyAt(i);
+                    byte type = compound.valueAt(i).getId();
+                    Integer column = columns.get(key);
+                    if (column == null) {
+                        column = keys.size();
+                        keys.add(key);
+                        types.add(type);
+                        columns.put(key, column);
+                    } else if (types.get(column) != type) {
+                        return null;
+                    }
+
+                    if (column < previous) return null;
+                    previous = column;
+                }
+            }
+            return new Columns(keys, types, columns);
+        }
+    }
+
+    private static final class Reader {
+        private final DataInput input;
+        private final NBTSizeTracker sizeTracker;
+        private final List<String> keys = new ArrayList<>();
+        private final List<Shape> shapes = new ArrayList<>();
+
+        private Reader(DataInput input, NBTSizeTracker sizeTracker) {
+            this.input = input;
+            this.sizeTracker = sizeTracker;
+        }
+
+        private StorageBase readValue(byte id, int depth) throws IOException {
+            if (depth > 512) throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
+
+            switch (id) {
+                case 1:
+                    sizeTracker.account(1, 16);
+                    return new StorageTagByte(input.readByte());
+                case 2:
+                    sizeTracker.account(2, 16);
+                    return new StorageTagShort(input.readShort());
+                case 3:
+                    // Variable-length numbers count their own bytes
+                    sizeTracker.account(0, 16);
+                    return new StorageTagInt((int) unZigZag(readVarLong()));
+                case 4:
+                    sizeTracker.account(0, 24);
+                    return new StorageTagLong(unZigZag(readVarLong()));
+                case 5:
+                    sizeTracker.account(4, 16);
+                    return new StorageTagFloat(input.readFloat());
+                case 6:
+                    sizeTracker.account(8, 24);
+                    return new StorageTagDouble(input.readDouble());
+                case 7: {
+                    int length = readLength();
+                    sizeTracker.account(length, 16 + NBTSizeTracker.arrayHeap(1, length));
+                    byte[] data = new byte[length];
+                    input.readFully(data);
+                    return new StorageTagByteArray(data);
+                }
+                case 8: {
+                    String data = input.readUTF();
+                    sizeTracker.accountString(data, 0, 16);
+                    return new StorageTagString(data);
+                }
+                case 9:
+                    return readList(depth);
+                case 10:
+                    return readCompound(depth);
+                case 11: {
+                    int length = readLength();
+                    sizeTracker.account(4L * length, 16 + NBTSizeTracker.arrayHeap(4, length));
+                    int[] data = new int[length];
+                    for (int i = 0; i < data.length; i++) data[i] = input.readInt();
+                    return new StorageTagIntArray(data);
+                }
+                case 12: {
+                    int length = readLength();
+                    sizeTracker.account(8L * length, 16 + NBTSizeTracker.arrayHeap(8, length));
+                    long[] data = new long[length];
+                    for (int i = 0; i < data.length; i++) data[i] = input.readLong();
+                    return new StorageTagLongArray(data);
+                }
+                default:
+                    throw new IOException("Unknown tag type " + id);
+            }
+        }
+
+        private StorageTagCompound readCompound(int depth) throws IOException {
+            Shape shape = readShape();
+            sizeTracker.account(0, NBTSizeTracker.tagHeap((byte) 10) + NBTSizeTracker.compoundHeap(shape.keys.length));
+            StorageTagCompound compound = new StorageTagCompound();
+            CompactTagMap tags = compound.tags();
+            for (int i = 0; i < shape.keys.length; i++) {
+                tags.put(keys.get(shape.keys[i]), readValue(shape.types[i], depth + 1));
+            }
+            return compound;
+        }
+
+        private Shape readShape() throws IOException {
+            int id = readIndex();
+            if (id < shapes.size()) return shapes.get(id);
+            if (id != shapes.size()) throw new IOException("Unknown compound shape " + id);
+
+            int size = readLength();
+            sizeTracker.account(size, 0);
+            int[] keyIds = new int[size];
+            byte[] types = new byte[size];
+            for (int i = 0; i < size; i++) {
+                keyIds[i] = readKey();
+                types[i] = input.readByte();
+            }
+
+            Shape shape = new Shape(keyIds, types);
+            shapes.add(shape);
+            return shape;
+        }
+
+        private int readKey() throws IOException {
+            int id = readIndex();
+            if (id < keys.size()) return id;
+            if (id != keys.size()) throw new IOException("Unknown key " + id);
+
+            String key = input.readUTF();
+            // Keys are shared by every compound, so they are only counted once
+            sizeTracker.accountString(key, 0, 0);
+            keys.add(key);
+            return id;
+        }
+
+        private StorageTagList readList(int depth) throws IOException {
+            byte type = input.readByte();
+            int size = readLength();
+            if (type == 0 && size > 0) throw new IOException("Missing type on ListTag");
+            // The type byte, and the mode byte of lists of compounds
+            sizeTracker.account((type == 10 && size > 1) ? 2 : 1, NBTSizeTracker.tagHeap((byte) 9) + NBTSizeTracker.arrayHeap(4, size));
+
+            List<StorageBase> tags = new ArrayList<>(Math.min(size, 1024));
+            if (type == 10 && size > 1 && input.readByte() == COLUMNS) {
+                readColumns(tags, size, depth);
+            } else {
+                for (int i = 0; i < size; i++) tags.add(readValue(type, depth + 1));
+            }
+            return new StorageTagList(type, tags);
+        }
+
+        private void readColumns(List<StorageBase> tags, int size, int depth) throws IOException {
+            int fields = readLength();
+            String[] columns = new String[fields];
+            byte[] types = new byte[fields];
+            for (int i = 0; i < fields; i++) {
+                columns[i] = keys.get(readKey());
+                types[i] = input.readByte();
+            }
+
+            // The column types and the bitmaps, the compounds are counted as if they had every key
+            long bitmap = (fields + 7) >> 3;
+            sizeTracker.account(fields + size * bitmap, size * (NBTSizeTracker.tagHeap((byte) 10) + NBTSizeTracker.compoundHeap(fields)));
+            byte[][] bitmaps = new byte[size][(fields + 7) >> 3];
+            for (int i = 0; i < size; i++) {
+                input.readFully(bitmaps[i]);
+                tags.add(new StorageTagCompound());
+            }
+
+            for (int column = 0; column < fields; column++) {
+                for (int i = 0; i < size; i++) {
+                    if ((bitmaps[i][column >> 3] & (1 << (column & 7))) == 0) continue;
+                    ((StorageTagCompound) tags.get(i)).tags().put(columns[column], readValue(types[column], depth + 2));
+                }
+            }
+        }
+
+        private int readIndex() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) throw new IOException("Invalid index " + value);
+            return (int) value;
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > Integer.MAX_VALUE) throw new IOException("Invalid length " + length);
+            return (int) length;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = input.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    sizeTracker.account(shift / 7 + 1, 0);
+                    return value;
+                }
+            }
+            throw new IOException("Variable-length number is too long");
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.bsdevelopment.nbt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Writes tags as SNBT (the format read by {@link JsonToNBT}) straight into an {@link Appendable},
+ * such as a {@link StringBuilder} or a {@link java.io.Writer}, without building strings for the nested tags.
+ * <p>
+ * By default the output is compact (the same as {@link StorageBase#toString()}),
+ * {@link #setIndent(String)} enables pretty-printing.
+ */
+public class SNBTWriter {
+    private static final boolean[] UNQUOTED = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) UNQUOTED[c] = true;
+        for (char c = 'a'; c <= 'z'; c++) UNQUOTED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNQUOTED[c] = true;
+        UNQUOTED['_'] = UNQUOTED['-'] = UNQUOTED['.'] = UNQUOTED['+'] = true;
+    }
+
+    private final Appendable out;
+    // Set when writing to a StringBuilder, so numbers can be appended without creating strings
+    private final StringBuilder builder;
+    private final char[] digits = new char[20];
+    private String indent = null;
+    private boolean sortKeys = false;
+
+    public SNBTWriter(Appendable out) {
+        this.out = out;
+        this.builder = (out instanceof StringBuilder) ? (StringBuilder) out : null;
+    }
+
+    /**
+     * Writes every compound entry and list element on its own line, indented with the given string per level.
+     *
+     * @param indent The indent (e.g. two spaces), or null for compact output.
+     */
+    public SNBTWriter setIndent(String indent) {
+        this.indent = indent;
+        return this;
+    }
+
+    /**
+     * Writes compound keys in alphabetical order, rather than in the order they were added.
+     */
+    public SNBTWriter setSortKeys(boolean sortKeys) {
+        this.sortKeys = sortKeys;
+        return this;
+    }
+
+    /**
+     * Writes the tag in the compact format into a new string.
+     */
+    public static String toString(StorageBase tag) {
+        StringBuilder builder = new StringBuilder();
+        appendTo(builder, tag, false);
+        return builder.toString();
+    }
+
+    /**
+     * Writes the tag indented by two spaces per level into a new string.
+     */
+    public static String toPrettyString(StorageBase tag) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            new SNBTWriter(builder).setIndent("  ").write(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Whether the key can be written without quotes.
+     */
+    public static boolean isUnquoted(String key) {
+        if (key.isEmpty()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c >= 128 || !UNQUOTED[c]) return false;
+        }
+        return true;
+    }
+
+    static void appendTo(StringBuilder builder, StorageBase tag, boolean sortKeys) {
+        try {
+            new SNBTWriter(builder).setSortKeys(sortKeys).write(tag);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public SNBTWriter write(StorageBase tag) throws IOException {
+        write(tag, 0);
+        return this;
+    }
+
+    private void write(StorageBase tag, int depth) throws IOException {
+        switch (tag.getId()) {
+            case 0 -> out.append("END");
+            case 1 -> writeLong(((StoragePrimitive) tag).getByte()).append('b');
+            case 2 -> writeLong(((StoragePrimitive) tag).getShort()).append('s');
+            case 3 -> writeLong(((StoragePrimitive) tag).getInt());
+            case 4 -> writeLong(((StoragePrimitive) tag).getLong()).append('L');
+            case 5 -> {
+                float value = ((StoragePrimitive) tag).getFloat();
+                if (builder != null) builder.append(value); else out.append(Float.toString(value));
+                out.append('f');
+            }
+            case 6 -> {
+                double value = ((StoragePrimitive) tag).getDouble();
+                if (builder != null) builder.append(value); else out.append(Double.toString(value));
+                out.append('d');
+            }
+            case 7 -> {
+                byte[] data = ((StorageTagByteArray) tag).getByteArray();
+                out.append("[B;");
+                for (int i = 0; i < data.length; i++) {
+                    if (i != 0) out.append(',');
+                    writeLong(data[i]).append('B');
+                }
+                out.append(']');
+            }
+            case 8 -> writeQuoted(tag.getString());
+            case 9 -> writeList((StorageTagList) tag, depth);
+            case 10 -> writeCompound((StorageTagCompound) tag, depth);
+            case 11 -> {
+                int[] data = ((StorageTagIntArray) tag).getIntArray();
+                out.append("[I;");
+                for (int i = 0; i < data.length; i++) {
+                    if (i != 0) out.append(',');
+                    writeLong(data[i]);
+                }
+                out.append(']');
+            }
+            case 12 -> {
+                long[] data = ((StorageTagLongArray) tag).getList();
+                out.append("[L;");
+                for (int i = 0; i < data.length; i++) {
+                    if (i != 0) out.append(',');
+                    writeLong(data[i]).append('L');
+                }
+                out.append(']');
+            }
+            default -> throw new IllegalArgumentException("Unknown tag type " + tag.getId());
+        }
+    }
+
+    private void writeCompound(StorageTagCompound compound, int depth) throws IOException {
+        CompactTagMap tags = compound.tags();
+        out.append('{');
+        if (tags.isEmpty()) {
+            out.append('}');
+            return;
+        }
+
+        int[] positions = (sortKeys && tags.size() > 1) ? tags.sortedPositions() : null;
+        for (int i = 0; i < tags.size(); i++) {
+            if (i != 0) out.append(',');
+            newLine(depth + 1);
+
+            int position = (positions == null) ? i : positions[i];
+            String key = tags.keyAt(position);
+            if (isUnquoted(key)) out.append(key); else writeQuoted(key);
+            out.append(':');
+            if (indent != null) out.append(' ');
+            write(tags.valueAt(position), depth + 1);
+        }
+
+        newLine(depth);
+        out.append('}');
+    }
+
+    private void writeList(StorageTagList list, int depth) throws IOException {
+        List<StorageBase> tags = list.tags();
+        out.append('[');
+        if (tags.isEmpty()) {
+            out.append(']');
+            return;
+        }
+
+        for (int i = 0; i < tags.size(); i++) {
+            if (i != 0) out.append(',');
+            newLine(depth + 1);
+            write(tags.get(i), depth + 1);
+        }
+
+        newLine(depth);
+        out.append(']');
+    }
+
+    private void newLine(int depth) throws IOException {
+        if (indent == null) return;
+
+        out.append('\n');
+        for (int i = 0; i < depth; i++) out.append(indent);
+    }
+
+    /**
+     * Writes the string in double quotes, appending the parts between escaped characters as a whole.
+     */
+    private void writeQuoted(String value) throws IOException {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append(value, start, i).append('\\').append(c);
+                start = i + 1;
+            }
+        }
+        out.append(value, start, value.length()).append('"');
+    }
+
+    private Appendable writeLong(long value) throws IOException {
+        if (builder != null) return builder.append(value);
+        if (value == Long.MIN_VALUE) return out.append("-9223372036854775808");
+
+        int position = digits.length;
+        boolean negative = value < 0;
+        if (negative) value = -value;
+        do {
+            digits[--position] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (negative) digits[--position] = '-';
+
+        for (int i = position; i < digits.length; i++) out.append(digits[i]);
+        return out;
+    }
+}
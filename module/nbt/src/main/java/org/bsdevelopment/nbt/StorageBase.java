@@ -70,6 +70,32 @@ public abstract class StorageBase {
      */
     public abstract StorageBase copy();
 
+    /**
+     * Creates a copy-on-write clone of the tag. For compounds and lists this is O(1), the data is
+     * shared until either side changes it, at which point only the changed path is cloned.
+     * <p>
+     * Only changes made through this tag (or tags retrieved from it after the snapshot was taken) are
+     * copied. A nested compound or list that was retrieved <b>before</b> the snapshot is the same object
+     * the snapshot holds, so changing it changes the snapshot as well, and once the path to it has been
+     * cloned it is no longer part of this tag either. Callers must not keep nested references across a
+     * snapshot, retrieve them again instead. The array tags inside a compound or list are shared as well,
+     * so their arrays should not be changed in place; snapshotting an array tag itself copies its array.
+     */
+    public StorageBase snapshot() {
+        return copy();
+    }
+
+    /**
+     * Returns whether this tag may be referenced by more than one copy-on-write parent, in which case
+     * the parent replaces it with a {@link #snapshot()} before handing it out to be changed.
+     */
+    boolean isShared() {
+        return false;
+    }
+
+    void markShared() {
+    }
+
     /**
      * Return whether this compound has no tags.
      */
@@ -77,6 +103,20 @@ public abstract class StorageBase {
         return false;
     }
 
+    /**
+     * Returns whether this tag (or any tag nested in it) was changed since it was
+     * created, read or last {@link #markClean() marked clean}. Only compounds and lists can change.
+     */
+    public boolean isDirty() {
+        return false;
+    }
+
+    /**
+     * Marks this tag and every tag nested in it as unchanged.
+     */
+    public void markClean() {
+    }
+
     public boolean equals(Object instance) {
         return instance instanceof StorageBase && this.getId() == ((StorageBase) instance).getId();
     }
@@ -0,0 +1,268 @@
+package org.bsdevelopment.nbt;
+
+import org.bsdevelopment.nbt.other.NBTException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A structural patch between two versions of a {@link StorageTagCompound}, made up of
+ * set, remove and list splice operations.
+ * <p>
+ * Patches are stored as a {@link StorageTagCompound} (see {@link #toCompound()}), so they can be
+ * written and read with {@link CompressedStreamTools} like any other tag.
+ *
+ * <pre>{@code
+ * StoragePatch patch = StoragePatch.diff(oldCompound, newCompound);
+ * patch.apply(oldCompound); // oldCompound now equals newCompound
+ * }</pre>
+ */
+public class StoragePatch {
+    private static final byte SET = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SPLICE = 3;
+
+    // Path steps are prefixed so keys and list indexes can not be mistaken for each other
+    private static final char KEY_STEP = '.';
+    private static final char INDEX_STEP = '#';
+
+    private final List<Operation> operations;
+
+    private StoragePatch(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Computes the patch that turns {@code from} into {@code to}.
+     */
+    public static StoragePatch diff(StorageTagCompound from, StorageTagCompound to) {
+        List<Operation> operations = new ArrayList<>();
+        diffCompound(new ArrayList<>(), from, to, operations);
+        return new StoragePatch(operations);
+    }
+
+    /**
+     * Reads a patch that was stored with {@link #toCompound()}.
+     */
+    public static StoragePatch fromCompound(StorageTagCompound compound) throws NBTException {
+        StorageTagList list = compound.getTagList("ops", 10);
+        List<Operation> operations = new ArrayList<>(list.tagCount());
+
+        for (int i = 0; i < list.tagCount(); i++) {
+            StorageTagCompound tag = list.getCompoundTagAt(i);
+            StorageTagList pathTag = tag.getTagList("p", 8);
+            List<String> path = new ArrayList<>(pathTag.tagCount());
+            for (int j = 0; j < pathTag.tagCount(); j++) {
+                String step = pathTag.getStringTagAt(j);
+                if (step.isEmpty() || (step.charAt(0) != KEY_STEP && step.charAt(0) != INDEX_STEP))
+                    throw new NBTException("Invalid patch path step", step, 0);
+                if (step.charAt(0) == INDEX_STEP && parseIndex(step) < 0) throw new NBTException("Invalid list index", step, 1);
+                path.add(step);
+            }
+
+            byte type = tag.getByte("o", (byte) 0);
+            switch (type) {
+                case SET, REMOVE -> {
+                    if (path.isEmpty()) throw new NBTException("Patch operation is missing a path", tag.toString(), 0);
+                    if (type == SET && !tag.hasKey("v")) throw new NBTException("Patch operation is missing a value", tag.toString(), 0);
+                    operations.add(new Operation(type, path, 0, 0, tag.getTag("v")));
+                }
+                case SPLICE -> {
+                    int index = tag.getInteger("i", 0);
+                    int deleteCount = tag.getInteger("d", 0);
+                    if (index < 0 || deleteCount < 0) throw new NBTException("Invalid splice range", tag.toString(), 0);
+                    operations.add(new Operation(type, path, index, deleteCount, tag.getTag("v")));
+                }
+                default -> throw new NBTException("Unknown patch operation " + type, tag.toString(), 0);
+            }
+        }
+        return new StoragePatch(operations);
+    }
+
+    /**
+     * Stores the patch in a compound, which can be written using {@link CompressedStreamTools}.
+     */
+    public StorageTagCompound toCompound() {
+        StorageTagList list = new StorageTagList();
+        for (Operation operation : operations) {
+            StorageTagCompound tag = new StorageTagCompound();
+            tag.setByte("o", operation.type);
+
+            StorageTagList path = new StorageTagList();
+            operation.path.forEach(step -> path.appendTag(new StorageTagString(step)));
+            tag.setTag("p", path);
+
+            if (operation.type == SPLICE) {
+                tag.setInteger("i", operation.index);
+                tag.setInteger("d", operation.deleteCount);
+            }
+            if (operation.value != null) tag.setTag("v", StorageTagCompound.copyOf(operation.value));
+            list.appendTag(tag);
+        }
+
+        StorageTagCompound compound = new StorageTagCompound();
+        compound.setTag("ops", list);
+        return compound;
+    }
+
+    /**
+     * Applies the patch to the given compound, which should be equal to the {@code from} compound the patch was made with.
+     *
+     * @throws NBTException If the compound does not have the structure the patch expects.
+     */
+    public StorageTagCompound apply(StorageTagCompound target) throws NBTException {
+        for (Operation operation : operations) {
+            if (operation.type == SPLICE) {
+                StorageBase base = resolve(target, operation.path, operation.path.size());
+                if (!(base instanceof StorageTagList list)) throw error("Expected a list", operation);
+
+                List<StorageBase> tags = list.getList();
+                if (operation.index < 0 || operation.deleteCount < 0 || operation.index > tags.size() - operation.deleteCount)
+                    throw error("Splice out of bounds", operation);
+
+                tags.subList(operation.index, operation.index + operation.deleteCount).clear();
+                List<StorageBase> inserted = new ArrayList<>();
+                if (operation.value instanceof StorageTagList values) {
+                    for (StorageBase value : values.tags()) inserted.add(StorageTagCompound.copyOf(value));
+                }
+                tags.addAll(operation.index, inserted);
+                continue;
+            }
+
+            StorageBase parent = resolve(target, operation.path, operation.path.size() - 1);
+            String step = operation.path.get(operation.path.size() - 1);
+
+            if (parent instanceof StorageTagCompound compound && step.charAt(0) == KEY_STEP) {
+                String key = step.substring(1);
+                if (operation.type == REMOVE) {
+                    compound.remove(key);
+                } else {
+                    compound.setTag(key, StorageTagCompound.copyOf(operation.value));
+                }
+            } else if (parent instanceof StorageTagList list && step.charAt(0) == INDEX_STEP && operation.type == SET) {
+                int index = parseIndex(step);
+                if (index < 0 || index >= list.tagCount()) throw error("Index out of bounds", operation);
+                list.getList().set(index, StorageTagCompound.copyOf(operation.value));
+            } else {
+                throw error("Path does not match", operation);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Gets the operations in this patch.
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Returns whether the two compounds the patch was made with were equal.
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    private static void diffCompound(List<String> path, StorageTagCompound from, StorageTagCompound to, List<Operation> operations) {
+        for (String key : from.tags().keySet()) {
+            if (!to.tags().containsKey(key)) operations.add(new Operation(REMOVE, append(path, KEY_STEP + key), 0, 0, null));
+        }
+
+        for (var entry : to.tags().entrySet()) {
+            diffTag(append(path, KEY_STEP + entry.getKey()), from.tags().get(entry.getKey()), entry.getValue(), operations);
+        }
+    }
+
+    private static void diffTag(List<String> path, StorageBase from, StorageBase to, List<Operation> operations) {
+        if (from == to) return;
+
+        if (from instanceof StorageTagCompound fromCompound && to instanceof StorageTagCompound toCompound) {
+            diffCompound(path, fromCompound, toCompound, operations);
+        } else if (from instanceof StorageTagList fromList && to instanceof StorageTagList toList && fromList.getTagType() == toList.getTagType()) {
+            diffList(path, fromList.tags(), toList.tags(), operations);
+        } else if (from == null || !from.equals(to)) {
+            operations.add(new Operation(SET, path, 0, 0, StorageTagCompound.copyOf(to)));
+        }
+    }
+
+    private static void diffList(List<String> path, List<StorageBase> from, List<StorageBase> to, List<Operation> operations) {
+        int prefix = 0;
+        int max = Math.min(from.size(), to.size());
+        while (prefix < max && from.get(prefix).equals(to.get(prefix))) prefix++;
+
+        int suffix = 0;
+        while (suffix < max - prefix && from.get(from.size() - 1 - suffix).equals(to.get(to.size() - 1 - suffix))) suffix++;
+
+        int removed = from.size() - prefix - suffix;
+        int added = to.size() - prefix - suffix;
+        if (removed == 0 && added == 0) return;
+
+        // A single changed compound/list is patched in place instead of being replaced
+        if (removed == 1 && added == 1) {
+            StorageBase fromTag = from.get(prefix);
+            StorageBase toTag = to.get(prefix);
+            if (fromTag.getId() == 9 || fromTag.getId() == 10) {
+                diffTag(append(path, INDEX_STEP + String.valueOf(prefix)), fromTag, toTag, operations);
+                return;
+            }
+        }
+
+        StorageTagList inserted = new StorageTagList();
+        for (int i = prefix; i < prefix + added; i++) inserted.appendTag(StorageTagCompound.copyOf(to.get(i)));
+        operations.add(new Operation(SPLICE, path, prefix, removed, inserted));
+    }
+
+    private static StorageBase resolve(StorageTagCompound root, List<String> path, int length) throws NBTException {
+        StorageBase current = root;
+        for (int i = 0; i < length; i++) {
+            String step = path.get(i);
+            if (current instanceof StorageTagCompound compound && step.charAt(0) == KEY_STEP) {
+                current = compound.getTag(step.substring(1));
+            } else if (current instanceof StorageTagList list && step.charAt(0) == INDEX_STEP) {
+                int index = parseIndex(step);
+                current = (index >= 0 && index < list.tagCount()) ? list.get(index) : null;
+            } else {
+                current = null;
+            }
+
+            if (current == null) throw new NBTException("Patch path does not exist", String.join("", path), i);
+        }
+        return current;
+    }
+
+    /**
+     * Parses the list index of a path step, or returns -1 if it is not a valid index.
+     */
+    private static int parseIndex(String step) {
+        try {
+            return Integer.parseInt(step, 1, step.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static NBTException error(String message, Operation operation) {
+        return new NBTException(message, String.join("", operation.path), 0);
+    }
+
+    private static List<String> append(List<String> path, String step) {
+        List<String> list = new ArrayList<>(path.size() + 1);
+        list.addAll(path);
+        list.add(step);
+        return list;
+    }
+
+    /**
+     * A single operation of a patch.
+     *
+     * @param type        The type of operation (1 = set, 2 = remove, 3 = list splice).
+     * @param path        The path to the tag, keys are prefixed with {@code .} and list indexes with {@code #}.
+     * @param index       For splices, the index in the list to start at.
+     * @param deleteCount For splices, the amount of tags to remove.
+     * @param value       The tag to set, the list of tags to insert for splices, or null for removals.
+     */
+    public record Operation(byte type, List<String> path, int index, int deleteCount, StorageBase value) {
+    }
+}
@@ -13,6 +13,13 @@ abstract class StoragePrimitive extends StorageBase {
 
     public abstract float getFloat();
 
+    /**
+     * Primitive tags can not be changed, so they are always shared.
+     */
+    public StorageBase snapshot() {
+        return this;
+    }
+
 
     int floor(double value) {
         int i = (int) value;
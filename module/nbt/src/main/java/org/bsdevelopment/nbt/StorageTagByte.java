@@ -27,7 +27,7 @@ public class StorageTagByte extends StoragePrimitive {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(72L);
+        sizeTracker.account(1, 16);
         this.data = input.readByte();
     }
 
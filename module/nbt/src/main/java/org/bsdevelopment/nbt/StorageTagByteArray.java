@@ -49,9 +49,9 @@ public class StorageTagByteArray extends StorageBase {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(192L);
         int i = input.readInt();
-        sizeTracker.read(8L * i);
+        if (i < 0) throw new IOException("Negative array length " + i);
+        sizeTracker.account(4L + i, 16 + NBTSizeTracker.arrayHeap(1, i));
         this.data = new byte[i];
         input.readFully(this.data);
     }
@@ -64,17 +64,7 @@ public class StorageTagByteArray extends StorageBase {
     }
 
     public String toString() {
-        StringBuilder stringbuilder = new StringBuilder("[B;");
-
-        for (int i = 0; i < this.data.length; ++i) {
-            if (i != 0) {
-                stringbuilder.append(',');
-            }
-
-            stringbuilder.append(this.data[i]).append('B');
-        }
-
-        return stringbuilder.append(']').toString();
+        return SNBTWriter.toString(this);
     }
 
     /**
@@ -1,7 +1,5 @@
 package org.bsdevelopment.nbt;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bsdevelopment.nbt.other.NBTSizeTracker;
@@ -15,13 +13,18 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
-import java.util.regex.Pattern;
 
 public class StorageTagCompound extends StorageBase {
     private static final Logger LOGGER = LogManager.getLogger(StorageTagCompound.class);
-    private static final Pattern PATTERN = Pattern.compile("[A-Za-z0-9._+-]+");
-    private final Map<String, StorageBase> tagMap = Maps.newHashMap();
-    private final List<String> booleans = new ArrayList<>();
+    private CompactTagMap tagMap = new CompactTagMap();
+    private boolean dirty = false;
+    // The cached hashCode, 0 when it has to be computed again
+    private int hash = 0;
+
+    // Whether tagMap is shared with a snapshot, and has to be cloned before it is changed
+    private boolean sharedMap = false;
+    // Whether this compound may be referenced by more than one parent
+    private boolean shared = false;
 
     private static void writeEntry(String name, StorageBase data, DataOutput output) throws IOException {
         output.writeByte(data.getId());
@@ -37,11 +40,12 @@ public class StorageTagCompound extends StorageBase {
     }
 
     private static String readKey(DataInput input, NBTSizeTracker sizeTracker) throws IOException {
-        return input.readUTF();
+        return NBTKeyTable.readKey(input);
     }
 
     static StorageBase readNBT(byte id, String key, DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
         StorageBase nbtbase = StorageBase.createNewByType(id);
+        if (nbtbase == null) throw new IOException("Unknown tag type " + id + " for key '" + key + "'");
 
         try {
             nbtbase.read(input, depth, sizeTracker);
@@ -51,8 +55,19 @@ public class StorageTagCompound extends StorageBase {
         }
     }
 
+    /**
+     * Clones the tag, primitives and strings can not be changed so they are returned as-is.
+     */
+    static StorageBase copyOf(StorageBase base) {
+        return isImmutable(base) ? base : base.copy();
+    }
+
+    static boolean isImmutable(StorageBase base) {
+        return base instanceof StoragePrimitive || base instanceof StorageTagString;
+    }
+
     protected static String match(String s) {
-        return PATTERN.matcher(s).matches() ? s : StorageTagString.configure(s);
+        return SNBTWriter.isUnquoted(s) ? s : StorageTagString.configure(s);
     }
 
     static void escape(String s, StringBuffer sb) {
@@ -102,37 +117,47 @@ public class StorageTagCompound extends StorageBase {
      * Write the actual data contents of the tag, implemented in NBT extension classes
      */
     void write(DataOutput output) throws IOException {
-        for (String s : this.tagMap.keySet()) {
-            StorageBase nbtbase = this.tagMap.get(s);
-            writeEntry(s, nbtbase, output);
+        for (int i = 0; i < this.tagMap.size(); i++) {
+            writeEntry(this.tagMap.keyAt(i), this.tagMap.valueAt(i), output);
         }
 
         output.writeByte(0);
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(384L);
+        // The type and end bytes, the arrays are counted once the size is known
+        sizeTracker.account(1, NBTSizeTracker.tagHeap((byte) 10));
 
         if (depth > 512) {
-            throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
         } else {
-            this.tagMap.clear();
+            this.tagMap = new CompactTagMap();
+            this.sharedMap = false;
+            this.hash = 0;
             byte b0;
 
             while ((b0 = readType(input, sizeTracker)) != 0) {
                 String s = readKey(input, sizeTracker);
-                sizeTracker.read(224 + 16L * s.length());
+                sizeTracker.accountString(s, 1, 0);
                 StorageBase nbtbase = readNBT(b0, s, input, depth + 1, sizeTracker);
-
-                if (this.tagMap.put(s, nbtbase) != null) {
-                    sizeTracker.read(288L);
-                }
+                this.tagMap.put(s, nbtbase);
             }
+            sizeTracker.account(0, NBTSizeTracker.compoundHeap(this.tagMap.size()));
         }
     }
 
+    /**
+     * Gets the underlying map for reading it within the package, without un-sharing it or its children.
+     */
+    CompactTagMap tags() {
+        return this.tagMap;
+    }
+
+    /**
+     * Gets the keys of the compound, removing a key from the set (or through its iterator) removes the tag.
+     */
     public Set<String> getKeySet() {
-        return this.tagMap.keySet();
+        return new KeySet();
     }
 
     /**
@@ -183,7 +208,10 @@ public class StorageTagCompound extends StorageBase {
      * Stores the given tag into the map with the given string key. This is mostly used to store tag lists.
      */
     public StorageTagCompound setTag(String key, StorageBase value) {
+        unshare();
         this.tagMap.put(key, value);
+        this.dirty = true;
+        this.hash = 0;
         return this;
     }
 
@@ -191,32 +219,28 @@ public class StorageTagCompound extends StorageBase {
      * Stores a new NBTTagByte with the given byte value into the map with the given string key.
      */
     public StorageTagCompound setByte(String key, byte value) {
-        this.tagMap.put(key, new StorageTagByte(value));
-        return this;
+        return setTag(key, new StorageTagByte(value));
     }
 
     /**
      * Stores a new NBTTagShort with the given short value into the map with the given string key.
      */
     public StorageTagCompound setShort(String key, short value) {
-        this.tagMap.put(key, new StorageTagShort(value));
-        return this;
+        return setTag(key, new StorageTagShort(value));
     }
 
     /**
      * Stores a new NBTTagInt with the given integer value into the map with the given string key.
      */
     public StorageTagCompound setInteger(String key, int value) {
-        this.tagMap.put(key, new StorageTagInt(value));
-        return this;
+        return setTag(key, new StorageTagInt(value));
     }
 
     /**
      * Stores a new NBTTagLong with the given long value into the map with the given string key.
      */
     public StorageTagCompound setLong(String key, long value) {
-        this.tagMap.put(key, new StorageTagLong(value));
-        return this;
+        return setTag(key, new StorageTagLong(value));
     }
 
     public StorageTagCompound setUniqueId(String key, UUID value) {
@@ -242,60 +266,55 @@ public class StorageTagCompound extends StorageBase {
      * Stores a new NBTTagFloat with the given float value into the map with the given string key.
      */
     public StorageTagCompound setFloat(String key, float value) {
-        this.tagMap.put(key, new StorageTagFloat(value));
-        return this;
+        return setTag(key, new StorageTagFloat(value));
     }
 
     /**
      * Stores a new NBTTagDouble with the given double value into the map with the given string key.
      */
     public StorageTagCompound setDouble(String key, double value) {
-        this.tagMap.put(key, new StorageTagDouble(value));
-        return this;
+        return setTag(key, new StorageTagDouble(value));
     }
 
     /**
      * Stores a new NBTTagString with the given string value into the map with the given string key.
      */
     public StorageTagCompound setString(String key, String value) {
-        this.tagMap.put(key, new StorageTagString(value));
-        return this;
+        return setTag(key, new StorageTagString(value));
     }
 
     /**
      * Stores a new NBTTagByteArray with the given array as data into the map with the given string key.
      */
     public StorageTagCompound setByteArray(String key, byte[] value) {
-        this.tagMap.put(key, new StorageTagByteArray(value));
-        return this;
+        return setTag(key, new StorageTagByteArray(value));
     }
 
     /**
      * Stores a new NBTTagIntArray with the given array as data into the map with the given string key.
      */
     public StorageTagCompound setIntArray(String key, int[] value) {
-        this.tagMap.put(key, new StorageTagIntArray(value));
-        return this;
+        return setTag(key, new StorageTagIntArray(value));
     }
 
     /**
      * Stores the given boolean value as a NBTTagByte, storing 1 for true and 0 for false, using the given string key.
      */
     public StorageTagCompound setBoolean(String key, boolean value) {
-        tagMap.put(key, new StorageTagByte((byte) ((value) ? 1 : 0)));
-        booleans.add(key);
+        setTag(key, new StorageTagByte((byte) ((value) ? 1 : 0)));
+        this.tagMap.markBoolean(key);
         return this;
     }
 
     public boolean isBoolean(String key) {
-        return booleans.contains(key);
+        return this.tagMap.isBoolean(key);
     }
 
     /**
      * gets a generic tag with the specified name
      */
     public StorageBase getTag(String key) {
-        return this.tagMap.get(key);
+        return getOwned(key);
     }
 
     /**
@@ -626,7 +645,7 @@ public class StorageTagCompound extends StorageBase {
     public StorageTagCompound getCompoundTag(String key) {
         try {
             if (this.hasKey(key, 10)) {
-                return (StorageTagCompound) this.tagMap.get(key);
+                return (StorageTagCompound) getOwned(key);
             }
         } catch (ClassCastException ignored) {
         }
@@ -640,7 +659,7 @@ public class StorageTagCompound extends StorageBase {
     public StorageTagList getTagList(String key, int type) {
         try {
             if (this.getTagId(key) == 9) {
-                StorageTagList nbttaglist = (StorageTagList) this.tagMap.get(key);
+                StorageTagList nbttaglist = (StorageTagList) getOwned(key);
 
                 if (!nbttaglist.hasNoTags() && nbttaglist.getTagType() != type) {
                     return new StorageTagList();
@@ -667,24 +686,9 @@ public class StorageTagCompound extends StorageBase {
     }
 
     public String toString() {
-        StringBuilder stringbuilder = new StringBuilder("{");
-        Collection<String> collection = this.tagMap.keySet();
-
-        if (LOGGER.isDebugEnabled()) {
-            List<String> list = Lists.newArrayList(this.tagMap.keySet());
-            Collections.sort(list);
-            collection = list;
-        }
-
-        for (String s : collection) {
-            if (stringbuilder.length() != 1) {
-                stringbuilder.append(',');
-            }
-
-            stringbuilder.append(match(s)).append(':').append(this.tagMap.get(s));
-        }
-
-        return stringbuilder.append('}').toString();
+        StringBuilder builder = new StringBuilder();
+        SNBTWriter.appendTo(builder, this, LOGGER.isDebugEnabled());
+        return builder.toString();
     }
 
     /**
@@ -699,48 +703,165 @@ public class StorageTagCompound extends StorageBase {
      */
     public StorageTagCompound copy() {
         StorageTagCompound nbttagcompound = new StorageTagCompound();
+        nbttagcompound.tagMap = new CompactTagMap(this.tagMap);
 
-        for (String s : this.tagMap.keySet()) {
-            nbttagcompound.setTag(s, this.tagMap.get(s).copy());
+        for (int i = 0; i < nbttagcompound.tagMap.size(); i++) {
+            nbttagcompound.tagMap.setValueAt(i, copyOf(nbttagcompound.tagMap.valueAt(i)));
         }
 
         return nbttagcompound;
     }
 
+    public StorageTagCompound snapshot() {
+        StorageTagCompound snapshot = new StorageTagCompound();
+        snapshot.tagMap = this.tagMap;
+        snapshot.dirty = this.dirty;
+        snapshot.hash = this.hash;
+        snapshot.sharedMap = true;
+        this.sharedMap = true;
+        return snapshot;
+    }
+
+    boolean isShared() {
+        return this.shared;
+    }
+
+    void markShared() {
+        this.shared = true;
+    }
+
+    /**
+     * Clones the map if it is shared with a snapshot, so it can be changed. The children are
+     * still shared after this, so they are marked to be replaced when they are handed out.
+     */
+    private void unshare() {
+        if (!this.sharedMap) return;
+
+        this.tagMap = new CompactTagMap(this.tagMap);
+        this.sharedMap = false;
+        for (int i = 0; i < this.tagMap.size(); i++) {
+            this.tagMap.valueAt(i).markShared();
+        }
+    }
+
+    /**
+     * Gets the tag for the key, making sure a compound or list is only referenced by this compound
+     * as the caller might change it.
+     */
+    private StorageBase getOwned(String key) {
+        int position = this.tagMap.indexOf(key);
+        if (position < 0) return null;
+        StorageBase base = this.tagMap.valueAt(position);
+        if (base.getId() != 9 && base.getId() != 10) return base;
+
+        unshare();
+        // The caller might change the tag, which this compound would not notice
+        this.hash = 0;
+        if (base.isShared()) {
+            base = base.snapshot();
+            this.tagMap.setValueAt(position, base);
+        }
+        return base;
+    }
+
     public boolean equals(Object instance) {
-        return super.equals(instance) && Objects.equals(this.tagMap.entrySet(), ((StorageTagCompound) instance).tagMap.entrySet());
+        if (instance == this) return true;
+        if (!super.equals(instance)) return false;
+
+        StorageTagCompound other = (StorageTagCompound) instance;
+        if (this.tagMap == other.tagMap) return true;
+        // Both hashes are cached (and so up to date), different hashes mean different contents
+        if (this.hash != 0 && other.hash != 0 && this.hash != other.hash) return false;
+        return this.tagMap.equals(other.tagMap);
     }
 
+    /**
+     * Gets the hash of the contents. It is only cached (until this compound is changed) when the compound holds
+     * nothing but primitives and strings, as nested compounds, lists and arrays can be changed without this
+     * compound knowing about it.
+     * <p>
+     * Use {@link NBTDigest} for a hash that is stable between runs.
+     */
     public int hashCode() {
-        return super.hashCode() ^ this.tagMap.hashCode();
+        int hash = this.hash;
+        if (hash == 0) {
+            hash = super.hashCode() ^ this.tagMap.hashCode();
+            if (hasOnlyValues()) this.hash = hash;
+        }
+        return hash;
+    }
+
+    private boolean hasOnlyValues() {
+        for (int i = 0; i < tagMap.size(); i++) {
+            if (!isImmutable(tagMap.valueAt(i))) return false;
+        }
+        return true;
     }
 
     /**
      * Remove the specified tag.
      */
     public StorageTagCompound remove(String key) {
-        if (hasKey(key)) tagMap.remove(key);
-        booleans.remove(key);
+        unshare();
+        if (tagMap.remove(key) != null) {
+            dirty = true;
+            hash = 0;
+        }
         return this;
     }
 
+    private void removeSlot(int slot) {
+        // A copy of the map keeps the slots, so an iterator can go on after the map was unshared
+        unshare();
+        tagMap.removeSlot(slot);
+        dirty = true;
+        hash = 0;
+    }
+
+    /**
+     * Marks this compound as changed, needed when the contents of an array tag are changed in place
+     * as that can not be detected.
+     */
+    public void markDirty() {
+        this.dirty = true;
+        this.hash = 0;
+    }
+
+    public boolean isDirty() {
+        if (this.dirty) return true;
+
+        for (int i = 0; i < this.tagMap.size(); i++) {
+            if (this.tagMap.valueAt(i).isDirty()) return true;
+        }
+        return false;
+    }
+
+    public void markClean() {
+        this.dirty = false;
+        for (int i = 0; i < this.tagMap.size(); i++) {
+            this.tagMap.valueAt(i).markClean();
+        }
+    }
+
     /**
      * Merges this NBTTagCompound with the given compound. Any sub-compounds are merged using the same methods, other
-     * types of tags are overwritten from the given compound.
+     * types of tags are overwritten from the given compound. Compounds and lists that are taken over are
+     * {@link #snapshot() snapshots}, so they are only cloned once either side changes them.
      */
     public StorageTagCompound merge(StorageTagCompound other) {
-        for (String s : other.tagMap.keySet()) {
-            StorageBase nbtbase = other.tagMap.get(s);
+        for (int i = 0; i < other.tagMap.size(); i++) {
+            String s = other.tagMap.keyAt(i);
+            StorageBase nbtbase = other.tagMap.valueAt(i);
 
             if (nbtbase.getId() == 10) {
                 if (this.hasKey(s, 10)) {
                     StorageTagCompound nbttagcompound = this.getCompoundTag(s);
                     nbttagcompound.merge((StorageTagCompound) nbtbase);
                 } else {
-                    this.setTag(s, nbtbase.copy());
+                    this.setTag(s, nbtbase.snapshot());
                 }
             } else {
-                this.setTag(s, nbtbase.copy());
+                this.setTag(s, isImmutable(nbtbase) ? nbtbase : nbtbase.snapshot());
             }
         }
         return this;
@@ -772,4 +893,58 @@ public class StorageTagCompound extends StorageBase {
         }
         return builder.toString().toUpperCase();
     }
-}
\ No newline at end of file
+
+    /**
+     * A view of the keys that removes the tag from the compound (and marks it as changed) when a key is removed.
+     */
+    private final class KeySet extends AbstractSet<String> {
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<>() {
+                // A copy made by unshare() keeps the compaction count along with the slots
+                private final int expectedCompactions = tagMap.getCompactions();
+                private int next = tagMap.nextSlot(0);
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public String next() {
+                    if (tagMap.getCompactions() != expectedCompactions) throw new ConcurrentModificationException();
+                    if (next < 0) throw new NoSuchElementException();
+                    last = next;
+                    next = tagMap.nextSlot(next + 1);
+                    return tagMap.keyAtSlot(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) throw new IllegalStateException();
+                    if (tagMap.getCompactions() != expectedCompactions) throw new ConcurrentModificationException();
+                    removeSlot(last);
+                    last = -1;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return tagMap.size();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return tagMap.containsKey(key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            if (!tagMap.containsKey(key)) return false;
+            StorageTagCompound.this.remove((String) key);
+            return true;
+        }
+    }
+}
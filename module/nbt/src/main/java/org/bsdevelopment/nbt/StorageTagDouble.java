@@ -27,7 +27,7 @@ public class StorageTagDouble extends StoragePrimitive {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(128L);
+        sizeTracker.account(8, 24);
         this.data = input.readDouble();
     }
 
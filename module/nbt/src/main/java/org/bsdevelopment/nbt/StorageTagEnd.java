@@ -7,7 +7,7 @@ import java.io.DataOutput;
 
 public class StorageTagEnd extends StorageBase {
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) {
-        sizeTracker.read(64L);
+        sizeTracker.account(0, 16);
     }
 
     /**
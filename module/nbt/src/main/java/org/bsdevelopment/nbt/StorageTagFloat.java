@@ -27,7 +27,7 @@ public class StorageTagFloat extends StoragePrimitive {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(96L);
+        sizeTracker.account(4, 16);
         this.data = input.readFloat();
     }
 
@@ -52,9 +52,9 @@ public class StorageTagIntArray extends StorageBase {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(192L);
         int i = input.readInt();
-        sizeTracker.read(32L * i);
+        if (i < 0) throw new IOException("Negative array length " + i);
+        sizeTracker.account(4L + 4L * i, 16 + NBTSizeTracker.arrayHeap(4, i));
         this.intArray = new int[i];
 
         for (int j = 0; j < i; ++j) {
@@ -70,17 +70,7 @@ public class StorageTagIntArray extends StorageBase {
     }
 
     public String toString() {
-        StringBuilder stringbuilder = new StringBuilder("[I;");
-
-        for (int i = 0; i < this.intArray.length; ++i) {
-            if (i != 0) {
-                stringbuilder.append(',');
-            }
-
-            stringbuilder.append(this.intArray[i]);
-        }
-
-        return stringbuilder.append(']').toString();
+        return SNBTWriter.toString(this);
     }
 
     /**
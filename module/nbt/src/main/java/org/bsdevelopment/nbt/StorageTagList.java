@@ -8,8 +8,10 @@ import org.bsdevelopment.nbt.other.NBTSizeTracker;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.Objects;
+import java.util.RandomAccess;
 
 public class StorageTagList extends StorageBase {
     private static final Logger LOGGER = LogManager.getLogger(StorageTagList.class);
@@ -19,11 +21,39 @@ public class StorageTagList extends StorageBase {
      * The type byte for the tags in the list - they must all be of the same type.
      */
     private byte tagType = 0;
+    private boolean dirty = false;
+    // The cached hashCode, 0 when it has to be computed again
+    private int hash = 0;
 
-    public List<StorageBase> getList() {
+    // Whether tagList is shared with a snapshot, and has to be cloned before it is changed
+    private boolean sharedList = false;
+    // Whether this list may be referenced by more than one parent
+    private boolean shared = false;
+    private TrackedList trackedList = null;
+
+    public StorageTagList() {
+    }
+
+    StorageTagList(byte tagType, List<StorageBase> tagList) {
+        this.tagType = tagType;
+        this.tagList = tagList;
+    }
+
+    /**
+     * Gets the underlying list for reading it within the package, without un-sharing it or its children.
+     */
+    List<StorageBase> tags() {
         return tagList;
     }
 
+    /**
+     * Gets the tags in this list, changes made to the returned list mark this list as dirty.
+     */
+    public List<StorageBase> getList() {
+        if (trackedList == null) trackedList = new TrackedList();
+        return trackedList;
+    }
+
     /**
      * Write the actual data contents of the tag, implemented in NBT extension classes
      */
@@ -43,19 +73,24 @@ public class StorageTagList extends StorageBase {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(296L);
-
         if (depth > 512) {
-            throw new RuntimeException("Tried to read NBT tag with too high complexity, depth > 512");
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > 512");
         } else {
             this.tagType = input.readByte();
             int i = input.readInt();
 
             if (this.tagType == 0 && i > 0) {
-                throw new RuntimeException("Missing type on ListTag");
+                throw new IOException("Missing type on ListTag");
+            } else if (i < 0) {
+                throw new IOException("Negative ListTag size " + i);
+            } else if (this.tagType < 0 || this.tagType > 12) {
+                throw new IOException("Unknown ListTag type " + this.tagType);
             } else {
-                sizeTracker.read(32L * (long) i);
+                // Counted before the list is allocated, the elements count themselves
+                sizeTracker.account(5, NBTSizeTracker.tagHeap((byte) 9) + NBTSizeTracker.arrayHeap(4, i));
                 this.tagList = Lists.newArrayListWithCapacity(i);
+                this.sharedList = false;
+                this.hash = 0;
 
                 for (int j = 0; j < i; ++j) {
                     StorageBase nbtbase = createNewByType(this.tagType);
@@ -74,21 +109,11 @@ public class StorageTagList extends StorageBase {
     }
 
     public String toString() {
-        StringBuilder stringbuilder = new StringBuilder("[");
-
-        for (int i = 0; i < this.tagList.size(); ++i) {
-            if (i != 0) {
-                stringbuilder.append(',');
-            }
-
-            stringbuilder.append(this.tagList.get(i));
-        }
-
-        return stringbuilder.append(']').toString();
+        return SNBTWriter.toString(this);
     }
 
     public List<StorageBase> getTagList() {
-        return tagList;
+        return getList();
     }
 
     /**
@@ -99,6 +124,7 @@ public class StorageTagList extends StorageBase {
         if (nbt.getId() == 0) {
             LOGGER.warn("Invalid TagEnd added to ListTag");
         } else {
+            unshare();
             if (this.tagType == 0) {
                 this.tagType = nbt.getId();
             } else if (this.tagType != nbt.getId()) {
@@ -107,6 +133,8 @@ public class StorageTagList extends StorageBase {
             }
 
             this.tagList.add(nbt);
+            this.dirty = true;
+            this.hash = 0;
         }
         return this;
     }
@@ -118,6 +146,7 @@ public class StorageTagList extends StorageBase {
         if (nbt.getId() == 0) {
             LOGGER.warn("Invalid TagEnd added to ListTag");
         } else if (idx >= 0 && idx < this.tagList.size()) {
+            unshare();
             if (this.tagType == 0) {
                 this.tagType = nbt.getId();
             } else if (this.tagType != nbt.getId()) {
@@ -126,6 +155,8 @@ public class StorageTagList extends StorageBase {
             }
 
             this.tagList.set(idx, nbt);
+            this.dirty = true;
+            this.hash = 0;
         } else {
             LOGGER.warn("index out of bounds to set tag in tag list");
         }
@@ -135,7 +166,27 @@ public class StorageTagList extends StorageBase {
      * Removes a tag at the given index.
      */
     public StorageBase removeTag(int i) {
-        return this.tagList.remove(i);
+        unshare();
+        StorageBase removed = this.tagList.remove(i);
+        this.dirty = true;
+        this.hash = 0;
+        return removed;
+    }
+
+    public boolean isDirty() {
+        if (this.dirty) return true;
+
+        for (StorageBase base : this.tagList) {
+            if (base.isDirty()) return true;
+        }
+        return false;
+    }
+
+    public void markClean() {
+        this.dirty = false;
+        for (StorageBase base : this.tagList) {
+            base.markClean();
+        }
     }
 
     /**
@@ -153,7 +204,7 @@ public class StorageTagList extends StorageBase {
             StorageBase nbtbase = this.tagList.get(i);
 
             if (nbtbase.getId() == 10) {
-                return (StorageTagCompound) nbtbase;
+                return (StorageTagCompound) getOwned(i);
             }
         }
 
@@ -224,7 +275,7 @@ public class StorageTagList extends StorageBase {
      * Get the tag at the given position
      */
     public StorageBase get(int idx) {
-        return idx >= 0 && idx < this.tagList.size() ? this.tagList.get(idx) : new StorageTagEnd();
+        return idx >= 0 && idx < this.tagList.size() ? getOwned(idx) : new StorageTagEnd();
     }
 
     /**
@@ -242,27 +293,129 @@ public class StorageTagList extends StorageBase {
         nbttaglist.tagType = this.tagType;
 
         for (StorageBase nbtbase : this.tagList) {
-            StorageBase nbtbase1 = nbtbase.copy();
+            StorageBase nbtbase1 = StorageTagCompound.copyOf(nbtbase);
             nbttaglist.tagList.add(nbtbase1);
         }
 
         return nbttaglist;
     }
 
+    public StorageTagList snapshot() {
+        StorageTagList snapshot = new StorageTagList(this.tagType, this.tagList);
+        snapshot.dirty = this.dirty;
+        snapshot.hash = this.hash;
+        snapshot.sharedList = true;
+        this.sharedList = true;
+        return snapshot;
+    }
+
+    boolean isShared() {
+        return this.shared;
+    }
+
+    void markShared() {
+        this.shared = true;
+    }
+
+    /**
+     * Clones the list if it is shared with a snapshot, so it can be changed. The children are
+     * still shared after this, so they are marked to be replaced when they are handed out.
+     */
+    private void unshare() {
+        if (!this.sharedList) return;
+
+        this.tagList = Lists.newArrayList(this.tagList);
+        this.sharedList = false;
+        for (StorageBase base : this.tagList) {
+            base.markShared();
+        }
+    }
+
+    /**
+     * Gets the tag at the index, making sure a compound or list is only referenced by this list
+     * as the caller might change it.
+     */
+    private StorageBase getOwned(int index) {
+        StorageBase base = this.tagList.get(index);
+        if (base.getId() != 9 && base.getId() != 10) return base;
+
+        unshare();
+        // The caller might change the tag, which this list would not notice
+        this.hash = 0;
+        if (base.isShared()) {
+            base = base.snapshot();
+            this.tagList.set(index, base);
+        }
+        return base;
+    }
+
     public boolean equals(Object instance) {
         if (!super.equals(instance)) {
             return false;
         } else {
             StorageTagList nbttaglist = (StorageTagList) instance;
+            if (this.hash != 0 && nbttaglist.hash != 0 && this.hash != nbttaglist.hash) return false;
             return this.tagType == nbttaglist.tagType && Objects.equals(this.tagList, nbttaglist.tagList);
         }
     }
 
+    /**
+     * Gets the hash of the contents, cached the same way as {@link StorageTagCompound#hashCode()}.
+     */
     public int hashCode() {
-        return super.hashCode() ^ this.tagList.hashCode();
+        int hash = this.hash;
+        if (hash == 0) {
+            hash = super.hashCode() ^ this.tagList.hashCode();
+            // Elements of one list all have the same type
+            if (this.tagList.isEmpty() || StorageTagCompound.isImmutable(this.tagList.get(0))) this.hash = hash;
+        }
+        return hash;
     }
 
     public int getTagType() {
         return this.tagType;
     }
-}
\ No newline at end of file
+
+    /**
+     * A view of the tags that marks the list as dirty when it is changed.
+     */
+    private class TrackedList extends AbstractList<StorageBase> implements RandomAccess {
+        @Override
+        public StorageBase get(int index) {
+            return getOwned(index);
+        }
+
+        @Override
+        public int size() {
+            return tagList.size();
+        }
+
+        @Override
+        public StorageBase set(int index, StorageBase element) {
+            unshare();
+            if (tagType == 0) tagType = element.getId();
+            StorageBase previous = tagList.set(index, element);
+            dirty = true;
+            hash = 0;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, StorageBase element) {
+            unshare();
+            if (tagType == 0) tagType = element.getId();
+            tagList.add(index, element);
+            dirty = true;
+            hash = 0;
+        }
+
+        @Override
+        public StorageBase remove(int index) {
+            unshare();
+            StorageBase removed = tagList.remove(index);
+            dirty = true;
+            hash = 0;
+            return removed;
+        }
+    }
+}
@@ -49,9 +49,9 @@ public class StorageTagLongArray extends StorageBase {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(192L);
         int i = input.readInt();
-        sizeTracker.read(64L * i);
+        if (i < 0) throw new IOException("Negative array length " + i);
+        sizeTracker.account(4L + 8L * i, 16 + NBTSizeTracker.arrayHeap(8, i));
         this.longArray = new long[i];
 
         for (int j = 0; j < i; ++j) {
@@ -67,17 +67,7 @@ public class StorageTagLongArray extends StorageBase {
     }
 
     public String toString() {
-        StringBuilder stringbuilder = new StringBuilder("[L;");
-
-        for (int i = 0; i < this.longArray.length; ++i) {
-            if (i != 0) {
-                stringbuilder.append(',');
-            }
-
-            stringbuilder.append(this.longArray[i]).append('L');
-        }
-
-        return stringbuilder.append(']').toString();
+        return SNBTWriter.toString(this);
     }
 
     /**
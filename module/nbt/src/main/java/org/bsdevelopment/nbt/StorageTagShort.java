@@ -27,7 +27,7 @@ public class StorageTagShort extends StoragePrimitive {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(80L);
+        sizeTracker.account(2, 16);
         this.data = input.readShort();
     }
 
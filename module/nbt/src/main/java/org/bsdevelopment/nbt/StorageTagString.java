@@ -52,9 +52,8 @@ public class StorageTagString extends StorageBase {
     }
 
     void read(DataInput input, int depth, NBTSizeTracker sizeTracker) throws IOException {
-        sizeTracker.read(288L);
         this.data = input.readUTF();
-        sizeTracker.read(16L * this.data.length());
+        sizeTracker.accountString(this.data, 0, 16);
     }
 
     /**
@@ -75,6 +74,13 @@ public class StorageTagString extends StorageBase {
         return new StorageTagString(this.data);
     }
 
+    /**
+     * String tags can not be changed, so they are always shared.
+     */
+    public StorageBase snapshot() {
+        return this;
+    }
+
     /**
      * Return whether this compound has no tags.
      */
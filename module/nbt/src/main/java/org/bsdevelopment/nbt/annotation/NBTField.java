@@ -0,0 +1,16 @@
+package org.bsdevelopment.nbt.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets the key a field (or record component) is stored under by {@link org.bsdevelopment.nbt.NBTMapper},
+ * instead of the name of the field.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface NBTField {
+    String value();
+}
@@ -0,0 +1,14 @@
+package org.bsdevelopment.nbt.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Excludes a field from {@link org.bsdevelopment.nbt.NBTMapper}, the same as making it {@code transient}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface NBTIgnore {
+}
@@ -0,0 +1,326 @@
+package org.bsdevelopment.nbt.codec;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A pure-Java codec using the LZ4 block format.
+ * <p>
+ * The data is split into blocks of up to {@value #BLOCK_SIZE} bytes, each written as
+ * {@code [raw length][compressed length][data]}. Blocks that do not get smaller are stored
+ * as-is, which is marked by a compressed length of -1. A raw length of 0 ends the stream.
+ */
+public class LZ4Codec implements NBTCodec {
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+
+    @Override
+    public byte getId() {
+        return 2;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream output) {
+        return new BlockOutputStream(output);
+    }
+
+    @Override
+    public InputStream decompress(InputStream input) {
+        return new BlockInputStream(input);
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + (length / 255) + 16;
+    }
+
+    /**
+     * Compresses {@code length} bytes of {@code source} into {@code target}, which must be at least
+     * {@link #maxCompressedLength(int)} long.
+     *
+     * @return The amount of bytes written to the target.
+     */
+    static int compress(byte[] source, int length, byte[] target, int[] table) {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int index = 0;
+        int output = 0;
+        int matchStartLimit = length - MATCH_FIND_LIMIT;
+        int matchEndLimit = length - LAST_LITERALS;
+
+        while (index < matchStartLimit) {
+            int sequence = readInt(source, index);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int reference = table[hash];
+            table[hash] = index;
+
+            if ((reference < 0) || (index - reference > MAX_DISTANCE) || (readInt(source, reference) != sequence)) {
+                index++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while ((index + matchLength < matchEndLimit) && (source[reference + matchLength] == source[index + matchLength])) {
+                matchLength++;
+            }
+
+            output = writeSequence(source, anchor, index - anchor, target, output, index - reference, matchLength - MIN_MATCH);
+            index += matchLength;
+            anchor = index;
+        }
+
+        return writeSequence(source, anchor, length - anchor, target, output, 0, -1);
+    }
+
+    private static int writeSequence(byte[] source, int anchor, int literals, byte[] target, int output, int offset, int matchLength) {
+        int tokenIndex = output++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) output = writeLength(target, output, literals - 15);
+
+        System.arraycopy(source, anchor, target, output, literals);
+        output += literals;
+
+        // The last sequence only holds literals
+        if (matchLength >= 0) {
+            target[output++] = (byte) offset;
+            target[output++] = (byte) (offset >>> 8);
+            token |= Math.min(matchLength, 15);
+            if (matchLength >= 15) output = writeLength(target, output, matchLength - 15);
+        }
+
+        target[tokenIndex] = (byte) token;
+        return output;
+    }
+
+    private static int writeLength(byte[] target, int output, int length) {
+        while (length >= 255) {
+            target[output++] = (byte) 255;
+            length -= 255;
+        }
+        target[output++] = (byte) length;
+        return output;
+    }
+
+    /**
+     * Decompresses {@code length} bytes of {@code source} into {@code target}.
+     *
+     * @return The amount of bytes written to the target.
+     */
+    static int decompress(byte[] source, int length, byte[] target, int targetLength) throws IOException {
+        int index = 0;
+        int output = 0;
+
+        try {
+            while (index < length) {
+                int token = source[index++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int value;
+                    do {
+                        value = source[index++] & 0xFF;
+                        literals += value;
+                    } while (value == 255);
+                }
+
+                if ((index + literals > length) || (output + literals > targetLength))
+                    throw new IOException("Malformed LZ4 block: literals out of bounds");
+                System.arraycopy(source, index, target, output, literals);
+                index += literals;
+                output += literals;
+
+                if (index >= length) break;
+
+                int offset = (source[index] & 0xFF) | ((source[index + 1] & 0xFF) << 8);
+                index += 2;
+
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int value;
+                    do {
+                        value = source[index++] & 0xFF;
+                        matchLength += value;
+                    } while (value == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                if ((offset == 0) || (offset > output) || (output + matchLength > targetLength))
+                    throw new IOException("Malformed LZ4 block: match out of bounds");
+
+                int reference = output - offset;
+                if (offset >= matchLength) {
+                    System.arraycopy(target, reference, target, output, matchLength);
+                    output += matchLength;
+                } else {
+                    // Overlapping match, copy byte by byte so the repeated bytes are picked up
+                    for (int i = 0; i < matchLength; i++) target[output++] = target[reference++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 block", e);
+        }
+
+        return output;
+    }
+
+    private static int readInt(byte[] source, int index) {
+        return (source[index] & 0xFF) | ((source[index + 1] & 0xFF) << 8) | ((source[index + 2] & 0xFF) << 16) | ((source[index + 3] & 0xFF) << 24);
+    }
+
+    private static class BlockOutputStream extends FilterOutputStream {
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        private final int[] table = new int[1 << HASH_LOG];
+        private final DataOutputStream data;
+        private int count = 0;
+        private boolean closed = false;
+
+        BlockOutputStream(OutputStream output) {
+            super(output);
+            this.data = new DataOutputStream(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushBlock();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) flushBlock();
+
+                int amount = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, amount);
+                count += amount;
+                offset += amount;
+                length -= amount;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBlock();
+            data.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            try {
+                flushBlock();
+                data.writeInt(0);
+                data.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (count == 0) return;
+
+            int length = compress(buffer, count, compressed, table);
+            data.writeInt(count);
+            if (length < count) {
+                data.writeInt(length);
+                data.write(compressed, 0, length);
+            } else {
+                data.writeInt(-1);
+                data.write(buffer, 0, count);
+            }
+            count = 0;
+        }
+    }
+
+    private static class BlockInputStream extends FilterInputStream {
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final DataInputStream data;
+        private byte[] compressed = new byte[0];
+        private int position = 0;
+        private int limit = 0;
+        private boolean finished = false;
+
+        BlockInputStream(InputStream input) {
+            super(input);
+            this.data = new DataInputStream(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ((position == limit) && !readBlock()) return -1;
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if ((position == limit) && !readBlock()) return -1;
+
+            int amount = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, amount);
+            position += amount;
+            return amount;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n) {
+                if ((position == limit) && !readBlock()) break;
+
+                int amount = (int) Math.min(n - skipped, limit - position);
+                position += amount;
+                skipped += amount;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private boolean readBlock() throws IOException {
+            if (finished) return false;
+
+            int rawLength = data.readInt();
+            if (rawLength == 0) {
+                finished = true;
+                return false;
+            }
+            if ((rawLength < 0) || (rawLength > BLOCK_SIZE)) throw new IOException("Invalid LZ4 block length " + rawLength);
+
+            int length = data.readInt();
+            if (length == -1) {
+                data.readFully(buffer, 0, rawLength);
+            } else {
+                if ((length < 0) || (length > maxCompressedLength(BLOCK_SIZE))) throw new IOException("Invalid LZ4 compressed length " + length);
+                if (compressed.length < length) compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+                data.readFully(compressed, 0, length);
+                if (decompress(compressed, length, buffer, rawLength) != rawLength) throw new IOException("Malformed LZ4 block: length mismatch");
+            }
+
+            position = 0;
+            limit = rawLength;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.bsdevelopment.nbt.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression codec used to store NBT data.
+ * <p>
+ * Data written with a codec (other than {@link NBTCodecs#GZIP}) is prefixed with the
+ * {@link NBTCodecs#MAGIC} bytes and the {@link #getId() id} of the codec, so
+ * {@link org.bsdevelopment.nbt.CompressedStreamTools#readCompressed(InputStream)} can pick
+ * the right codec when reading it back.
+ */
+public interface NBTCodec {
+    /**
+     * Gets the id written in the header of the data, must be unique between registered codecs.
+     */
+    byte getId();
+
+    /**
+     * Gets the name of the codec, used for logging/configs.
+     */
+    String getName();
+
+    /**
+     * Wraps the given stream so anything written to it gets compressed.
+     * Closing the returned stream must also close the given stream.
+     */
+    OutputStream compress(OutputStream output) throws IOException;
+
+    /**
+     * Wraps the given stream so anything read from it gets decompressed.
+     * Closing the returned stream must also close the given stream.
+     */
+    InputStream decompress(InputStream input) throws IOException;
+
+    /**
+     * Compresses a complete block of data to the output and closes it. Codecs can override this to use the
+     * pooled deflaters/buffers of the {@link SerializerContext} rather than creating a new stream.
+     */
+    default void compress(byte[] data, int offset, int length, OutputStream output, SerializerContext context) throws IOException {
+        try (OutputStream stream = compress(output)) {
+            stream.write(data, offset, length);
+        }
+    }
+
+    /**
+     * Same as {@link #decompress(InputStream)}, but codecs can override this to use the pooled inflaters of
+     * the {@link SerializerContext}. The returned stream may only be used until the context is closed.
+     */
+    default InputStream decompress(InputStream input, SerializerContext context) throws IOException {
+        return decompress(input);
+    }
+
+    /**
+     * Whether the codec writes the {@link NBTCodecs#MAGIC} header, codecs that have
+     * a recognizable header of their own (like gzip) can skip it.
+     */
+    default boolean writesHeader() {
+        return true;
+    }
+}
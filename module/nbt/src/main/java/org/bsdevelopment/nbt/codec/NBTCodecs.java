@@ -0,0 +1,251 @@
+package org.bsdevelopment.nbt.codec;
+
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.*;
+
+/**
+ * The built-in {@link NBTCodec codecs}, and the registry used to look up a codec by its header id.
+ */
+public final class NBTCodecs {
+    /**
+     * The bytes written in front of the codec id, chosen so they can not be mistaken for
+     * gzip data (0x1F 0x8B) or an uncompressed root tag (a tag id between 0 and 12).
+     */
+    public static final byte[] MAGIC = {(byte) 0xB5, (byte) 0x4E};
+
+    private static final Map<Byte, NBTCodec> REGISTRY = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the data without any compression, the fastest to read and write.
+     */
+    public static final NBTCodec NONE = register(new NBTCodec() {
+        @Override
+        public byte getId() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "none";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return input;
+        }
+    });
+
+    /**
+     * Zlib deflate at the default compression level.
+     */
+    public static final NBTCodec DEFLATE = register(deflate(Deflater.DEFAULT_COMPRESSION));
+
+    /**
+     * A pure-Java LZ4 block codec, much faster than deflate while still reducing the size noticeably.
+     */
+    public static final NBTCodec LZ4 = register(new LZ4Codec());
+
+    /**
+     * The legacy gzip format at the default compression level, this is what
+     * {@link org.bsdevelopment.nbt.CompressedStreamTools#writeCompressed(org.bsdevelopment.nbt.StorageBase, OutputStream)} writes.
+     */
+    public static final NBTCodec GZIP = gzip(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Gzip at the default compression level, compressed on multiple threads.
+     * The output is a normal gzip file, so it can be read by anything that reads {@link #GZIP}.
+     */
+    public static final NBTCodec PARALLEL_GZIP = parallelGzip(Deflater.DEFAULT_COMPRESSION);
+
+    private NBTCodecs() {
+    }
+
+    /**
+     * Registers a codec so data written with it can be read back.
+     *
+     * @throws IllegalArgumentException If a different codec was already registered with the same id.
+     */
+    public static NBTCodec register(NBTCodec codec) {
+        NBTCodec previous = REGISTRY.putIfAbsent(codec.getId(), codec);
+        if ((previous != null) && (previous != codec))
+            throw new IllegalArgumentException("Codec id " + codec.getId() + " is already used by '" + previous.getName() + "'");
+        return codec;
+    }
+
+    /**
+     * Gets the codec registered with the given id, or null if none was registered.
+     */
+    public static NBTCodec getCodec(byte id) {
+        return REGISTRY.get(id);
+    }
+
+    /**
+     * Creates a zlib deflate codec with the given compression level.
+     * The level only affects writing, all deflate levels share the same header id.
+     *
+     * @param level The compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public static NBTCodec deflate(int level) {
+        checkLevel(level);
+        return new NBTCodec() {
+            @Override
+            public byte getId() {
+                return 1;
+            }
+
+            @Override
+            public String getName() {
+                return "deflate";
+            }
+
+            @Override
+            public OutputStream compress(OutputStream output) {
+                DeflaterOutputStream stream = new DeflaterOutputStream(output, new Deflater(level), 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            def.end();
+                        }
+                    }
+                };
+                return stream;
+            }
+
+            @Override
+            public InputStream decompress(InputStream input) {
+                return new InflaterInputStream(input);
+            }
+
+            @Override
+            public void compress(byte[] data, int offset, int length, OutputStream output, SerializerContext context) throws IOException {
+                try (output) {
+                    context.deflate(data, offset, length, level, false, output);
+                }
+            }
+
+            @Override
+            public InputStream decompress(InputStream input, SerializerContext context) throws IOException {
+                return context.inflate(input, false);
+            }
+        };
+    }
+
+    /**
+     * Creates a gzip codec with the given compression level, which does not write a
+     * header of its own as gzip data is already recognizable.
+     *
+     * @param level The compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public static NBTCodec gzip(int level) {
+        checkLevel(level);
+        return new NBTCodec() {
+            @Override
+            public byte getId() {
+                return -1;
+            }
+
+            @Override
+            public String getName() {
+                return "gzip";
+            }
+
+            @Override
+            public OutputStream compress(OutputStream output) throws IOException {
+                return new GZIPOutputStream(output, 8192) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            }
+
+            @Override
+            public InputStream decompress(InputStream input) throws IOException {
+                return new GZIPInputStream(input);
+            }
+
+            @Override
+            public void compress(byte[] data, int offset, int length, OutputStream output, SerializerContext context) throws IOException {
+                try (output) {
+                    context.gzip(data, offset, length, level, output);
+                }
+            }
+
+            @Override
+            public InputStream decompress(InputStream input, SerializerContext context) throws IOException {
+                return context.inflate(input, true);
+            }
+
+            @Override
+            public boolean writesHeader() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a gzip codec with the given compression level that compresses on multiple threads,
+     * see {@link ParallelGzipOutputStream}. Worth it for large compounds, small ones are better off with {@link #gzip(int)}.
+     *
+     * @param level The compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public static NBTCodec parallelGzip(int level) {
+        return parallelGzip(level, null);
+    }
+
+    /**
+     * Creates a gzip codec with the given compression level that compresses on the given executor,
+     * see {@link #parallelGzip(int)}. The caller is responsible for shutting down the executor.
+     *
+     * @param executor The executor the blocks are compressed on, or {@code null} to use the shared compression threads.
+     */
+    public static NBTCodec parallelGzip(int level, Executor executor) {
+        checkLevel(level);
+        NBTCodec gzip = gzip(level);
+        return new NBTCodec() {
+            @Override
+            public byte getId() {
+                return -1;
+            }
+
+            @Override
+            public String getName() {
+                return "parallel-gzip";
+            }
+
+            @Override
+            public OutputStream compress(OutputStream output) throws IOException {
+                return new ParallelGzipOutputStream(output, level, executor);
+            }
+
+            @Override
+            public InputStream decompress(InputStream input) throws IOException {
+                return gzip.decompress(input);
+            }
+
+            @Override
+            public InputStream decompress(InputStream input, SerializerContext context) throws IOException {
+                return gzip.decompress(input, context);
+            }
+
+            @Override
+            public boolean writesHeader() {
+                return false;
+            }
+        };
+    }
+
+    private static void checkLevel(int level) {
+        if ((level < -1) || (level > 9))
+            throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+}
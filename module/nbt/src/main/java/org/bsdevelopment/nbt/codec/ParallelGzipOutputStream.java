@@ -0,0 +1,197 @@
+package org.bsdevelopment.nbt.codec;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip data while compressing blocks of {@value #BLOCK_SIZE} bytes on multiple threads (like pigz).
+ * <p>
+ * Every block is compressed by its own raw deflater, primed with the last 32 KB of the previous block
+ * as dictionary, and ends with a sync flush so the blocks can simply be concatenated. The result is a single
+ * standard gzip member that can be read by {@link java.util.zip.GZIPInputStream} or any other gzip reader.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    // The compression threads used when no executor is given, created when they are first needed
+    private static ExecutorService defaultExecutor = null;
+
+    private final OutputStream output;
+    private final int level;
+    private final Executor executor;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] dictionary = null;
+    private long totalLength = 0;
+    private boolean closed = false;
+
+    public ParallelGzipOutputStream(OutputStream output) throws IOException {
+        this(output, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level The compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public ParallelGzipOutputStream(OutputStream output, int level) throws IOException {
+        this(output, level, null);
+    }
+
+    /**
+     * @param level    The compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param executor The executor the blocks are compressed on, or {@code null} to use the shared compression threads.
+     */
+    public ParallelGzipOutputStream(OutputStream output, int level, Executor executor) throws IOException {
+        this.output = output;
+        this.level = level;
+        this.executor = (executor == null) ? getDefaultExecutor() : executor;
+        this.maxPending = Runtime.getRuntime().availableProcessors() * 2;
+
+        // Magic, CM = deflate, no flags, no mtime, no extra flags, OS = unknown
+        output.write(new byte[]{0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == BLOCK_SIZE) submit(false);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int count = Math.min(length, BLOCK_SIZE - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == BLOCK_SIZE) submit(false);
+        }
+    }
+
+    /**
+     * Writes all blocks that finished compressing, without waiting for the others.
+     * Data that was not put into a full block yet is not flushed, as that would make the output less efficient.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) writeBlock(pending.pollFirst());
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        try {
+            submit(true);
+            while (!pending.isEmpty()) writeBlock(pending.pollFirst());
+
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) totalLength);
+        } finally {
+            closed = true;
+            for (Future<byte[]> future : pending) future.cancel(false);
+            output.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        byte[] previous = dictionary;
+
+        crc.update(data, 0, length);
+        totalLength += length;
+
+        if (!last) {
+            dictionary = Arrays.copyOfRange(data, length - DICTIONARY_SIZE, length);
+            block = new byte[BLOCK_SIZE];
+            blockLength = 0;
+        }
+
+        while (pending.size() >= maxPending) writeBlock(pending.pollFirst());
+        try {
+            pending.addLast(CompletableFuture.supplyAsync(() -> deflate(data, length, previous, last), executor));
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The compression executor was shut down", e);
+        }
+    }
+
+    private byte[] deflate(byte[] data, int length, byte[] previous, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null) deflater.setDictionary(previous);
+            deflater.setInput(data, 0, length);
+            if (last) deflater.finish();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16384];
+            while (true) {
+                int count = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                result.write(buffer, 0, count);
+                // A sync flush is complete once the deflater no longer fills the buffer
+                if (last ? deflater.finished() : count < buffer.length) break;
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeBlock(Future<byte[]> future) throws IOException {
+        try {
+            output.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        output.write(value);
+        output.write(value >>> 8);
+        output.write(value >>> 16);
+        output.write(value >>> 24);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if ((defaultExecutor == null) || defaultExecutor.isShutdown()) {
+            defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "ParallelGzip");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Stops the shared compression threads, streams that are still open finish their queued blocks but can not
+     * compress new ones. Call this when the program or plugin stops, a later stream starts new threads.
+     */
+    public static synchronized void shutdown() {
+        if (defaultExecutor == null) return;
+
+        defaultExecutor.shutdown();
+        defaultExecutor = null;
+    }
+}
@@ -0,0 +1,359 @@
+package org.bsdevelopment.nbt.codec;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Per-thread pool of the objects needed to (de)serialize and (de)compress NBT data, so repeated
+ * {@link org.bsdevelopment.nbt.CompressedStreamTools#writeCompressed(org.bsdevelopment.nbt.StorageBase, OutputStream, NBTCodec)
+ * writes} and reads don't allocate new deflaters, inflaters, streams and buffers every time.
+ * <p>
+ * A context must be released by closing it, after which it can be handed out again to the same thread:
+ * <pre>{@code
+ * try (SerializerContext context = SerializerContext.acquire()) {
+ *     ...
+ * }
+ * }</pre>
+ * If the context of the thread is still in use (e.g. when serializing from within a codec),
+ * a temporary context is created instead.
+ */
+public final class SerializerContext implements Closeable {
+    private static final ThreadLocal<SerializerContext> CONTEXT = ThreadLocal.withInitial(SerializerContext::new);
+
+    private static final int BUFFER_SIZE = 8192;
+    // Buffers that grew larger than this are not kept around, so one huge save doesn't pin its memory in every thread
+    private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+
+    private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+    private static final int FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FHCRC = 2;
+
+    private boolean inUse = false;
+
+    private Deflater zlibDeflater, rawDeflater;
+    private InflatingInputStream zlibInput, gzipInput;
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[BUFFER_SIZE];
+
+    private final Output output = new Output();
+    private final DataOutputStream dataOutput = new DataOutputStream(output);
+    private final ReusableBufferedInputStream sourceInput = new ReusableBufferedInputStream();
+    private final ReusableBufferedInputStream decompressedInput = new ReusableBufferedInputStream();
+    private final ReusableDataInputStream dataInput = new ReusableDataInputStream();
+
+    private SerializerContext() {
+    }
+
+    /**
+     * Gets the context of the current thread, or a new one if that context is already in use.
+     */
+    public static SerializerContext acquire() {
+        SerializerContext context = CONTEXT.get();
+        if (context.inUse) context = new SerializerContext();
+        context.inUse = true;
+        return context;
+    }
+
+    /**
+     * Gets an empty {@link DataOutputStream} that writes into {@link #getOutputBuffer()}.
+     */
+    public DataOutputStream dataOutput() {
+        output.reset();
+        return dataOutput;
+    }
+
+    /**
+     * Gets the array that was written to by {@link #dataOutput()}, only the first {@link #getOutputSize()} bytes are valid.
+     */
+    public byte[] getOutputBuffer() {
+        return output.array();
+    }
+
+    public int getOutputSize() {
+        return output.size();
+    }
+
+    /**
+     * Wraps the stream with a buffered stream (supporting mark/reset) that is reused.
+     */
+    public BufferedInputStream bufferedInput(InputStream input) {
+        return sourceInput.reset(input);
+    }
+
+    /**
+     * Wraps the decompressed stream in a buffered {@link DataInputStream} that is reused.
+     */
+    public DataInputStream dataInput(InputStream input) {
+        return dataInput.reset(decompressedInput.reset(input));
+    }
+
+    /**
+     * Compresses the data with a pooled deflater and writes it to the output.
+     *
+     * @param raw Whether to write raw deflate data, rather than the zlib format.
+     */
+    public void deflate(byte[] data, int offset, int length, int level, boolean raw, OutputStream output) throws IOException {
+        Deflater deflater;
+        if (raw) {
+            if (rawDeflater == null) rawDeflater = new Deflater(level, true);
+            deflater = rawDeflater;
+        } else {
+            if (zlibDeflater == null) zlibDeflater = new Deflater(level);
+            deflater = zlibDeflater;
+        }
+
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(scratch);
+            output.write(scratch, 0, count);
+        }
+    }
+
+    /**
+     * Compresses the data to a gzip member with a pooled deflater and writes it to the output.
+     */
+    public void gzip(byte[] data, int offset, int length, int level, OutputStream output) throws IOException {
+        output.write(GZIP_HEADER);
+        deflate(data, offset, length, level, true, output);
+
+        crc.reset();
+        crc.update(data, offset, length);
+        writeIntLE(output, (int) crc.getValue());
+        writeIntLE(output, length);
+    }
+
+    /**
+     * Wraps the stream with a pooled inflater.
+     *
+     * @param gzip Whether the data is gzip, rather than the zlib format.
+     */
+    public InputStream inflate(InputStream input, boolean gzip) throws IOException {
+        if (gzip) {
+            if (gzipInput == null) gzipInput = new InflatingInputStream(true);
+            return gzipInput.reset(input);
+        }
+
+        if (zlibInput == null) zlibInput = new InflatingInputStream(false);
+        return zlibInput.reset(input);
+    }
+
+    /**
+     * Releases the context, the streams handed out by it may not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (output.array().length > MAX_RETAINED_SIZE) output.shrink();
+        sourceInput.reset(null);
+        decompressedInput.reset(null);
+        dataInput.reset(null);
+        if (zlibInput != null) zlibInput.reset(null);
+        if (gzipInput != null) gzipInput.reset(null);
+        inUse = false;
+    }
+
+    private static void writeIntLE(OutputStream output, int value) throws IOException {
+        output.write(value);
+        output.write(value >>> 8);
+        output.write(value >>> 16);
+        output.write(value >>> 24);
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+        private Output() {
+            super(BUFFER_SIZE);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+
+        private void shrink() {
+            buf = new byte[BUFFER_SIZE];
+            count = 0;
+        }
+    }
+
+    private static final class ReusableBufferedInputStream extends BufferedInputStream {
+        private ReusableBufferedInputStream() {
+            super(null, BUFFER_SIZE);
+        }
+
+        private ReusableBufferedInputStream reset(InputStream input) {
+            in = input;
+            pos = 0;
+            count = 0;
+            markpos = -1;
+            marklimit = 0;
+            return this;
+        }
+    }
+
+    private static final class ReusableDataInputStream extends DataInputStream {
+        private ReusableDataInputStream() {
+            super(null);
+        }
+
+        private ReusableDataInputStream reset(InputStream input) {
+            in = input;
+            return this;
+        }
+    }
+
+    /**
+     * Inflates zlib or gzip data (including concatenated gzip members) with an inflater that is reset rather than recreated.
+     */
+    private static final class InflatingInputStream extends InputStream {
+        private final boolean gzip;
+        private final Inflater inflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] input = new byte[BUFFER_SIZE];
+        private final byte[] output = new byte[BUFFER_SIZE];
+
+        private InputStream source;
+        private int inputPosition, inputLength, outputPosition, outputLength;
+        private boolean started, finished;
+
+        private InflatingInputStream(boolean gzip) {
+            this.gzip = gzip;
+            this.inflater = new Inflater(gzip);
+        }
+
+        private InflatingInputStream reset(InputStream source) {
+            this.source = source;
+            inflater.reset();
+            crc.reset();
+            inputPosition = inputLength = outputPosition = outputLength = 0;
+            started = finished = false;
+            return this;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ((outputPosition == outputLength) && (fill() < 0)) return -1;
+            return output[outputPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if ((outputPosition == outputLength) && (fill() < 0)) return -1;
+
+            int count = Math.min(length, outputLength - outputPosition);
+            System.arraycopy(output, outputPosition, bytes, offset, count);
+            outputPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return outputLength - outputPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source != null) source.close();
+        }
+
+        private int fill() throws IOException {
+            if (!started) {
+                started = true;
+                if (gzip) readHeader(true);
+            }
+
+            try {
+                while (!finished) {
+                    int count = inflater.inflate(output, 0, output.length);
+                    if (count > 0) {
+                        if (gzip) crc.update(output, 0, count);
+                        outputPosition = 0;
+                        outputLength = count;
+                        return count;
+                    }
+
+                    if (inflater.finished()) {
+                        inputPosition = inputLength - inflater.getRemaining();
+                        finished = !gzip || !nextMember();
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("Compressed data needs a preset dictionary");
+                    } else if (inflater.needsInput()) {
+                        if ((inputPosition == inputLength) && !refill()) throw new EOFException("Unexpected end of compressed data");
+                        inflater.setInput(input, inputPosition, inputLength - inputPosition);
+                        inputPosition = inputLength;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage() == null ? "Invalid compressed data" : e.getMessage());
+            }
+            return -1;
+        }
+
+        /**
+         * Checks the trailer of the current gzip member and starts the next one, if there is one.
+         */
+        private boolean nextMember() throws IOException {
+            if ((readIntLE() != (int) crc.getValue()) || (readIntLE() != (int) inflater.getBytesWritten()))
+                throw new ZipException("Corrupt gzip trailer");
+
+            if (!readHeader(false)) return false;
+            inflater.reset();
+            crc.reset();
+            return true;
+        }
+
+        /**
+         * @return false if there is no further gzip member.
+         */
+        private boolean readHeader(boolean required) throws IOException {
+            int first = readByte();
+            if (!required && (first == -1)) return false;
+
+            int second = readByte();
+            if ((first != 0x1F) || (second != 0x8B)) {
+                // Like GZIPInputStream, anything that follows the last member is ignored
+                if (!required) return false;
+                throw new ZipException("Not in gzip format");
+            }
+            if (readRequiredByte() != 8) throw new ZipException("Unsupported gzip compression method");
+
+            int flags = readRequiredByte();
+            for (int i = 0; i < 6; i++) readRequiredByte();
+            if ((flags & FEXTRA) != 0) {
+                int length = readRequiredByte() | (readRequiredByte() << 8);
+                for (int i = 0; i < length; i++) readRequiredByte();
+            }
+            if ((flags & FNAME) != 0) while (readRequiredByte() != 0) ;
+            if ((flags & FCOMMENT) != 0) while (readRequiredByte() != 0) ;
+            if ((flags & FHCRC) != 0) {
+                readRequiredByte();
+                readRequiredByte();
+            }
+            return true;
+        }
+
+        private int readIntLE() throws IOException {
+            return readRequiredByte() | (readRequiredByte() << 8) | (readRequiredByte() << 16) | (readRequiredByte() << 24);
+        }
+
+        private int readRequiredByte() throws IOException {
+            int value = readByte();
+            if (value == -1) throw new EOFException("Unexpected end of gzip data");
+            return value;
+        }
+
+        private int readByte() throws IOException {
+            if ((inputPosition == inputLength) && !refill()) return -1;
+            return input[inputPosition++] & 0xFF;
+        }
+
+        private boolean refill() throws IOException {
+            int count = source.read(input, 0, input.length);
+            if (count <= 0) return false;
+
+            inputPosition = 0;
+            inputLength = count;
+            return true;
+        }
+    }
+}
@@ -13,6 +13,13 @@ public class NBTException extends Exception {
         this.input = input;
     }
 
+    /**
+     * Gets the position in the input where the error was found.
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
     @Override
     public String getMessage() {
         String message = this.message;
@@ -0,0 +1,11 @@
+package org.bsdevelopment.nbt.other;
+
+/**
+ * Thrown when NBT data goes over the limits of its {@link NBTSizeTracker}. It is unchecked so it is not
+ * wrapped by the nested reads of compounds and lists, and can be caught by itself.
+ */
+public class NBTSizeException extends RuntimeException {
+    public NBTSizeException(String message) {
+        super(message);
+    }
+}
@@ -1,25 +1,156 @@
 package org.bsdevelopment.nbt.other;
 
+/**
+ * Limits the size of NBT data while it is read or written, by counting the bytes of (uncompressed) NBT data that
+ * are consumed and estimating the heap retained by the tags that are created from it. Both are checked as every
+ * tag is read, and arrays and lists are counted before they are allocated, so a small file that claims to hold a
+ * huge array is rejected before the memory is taken. Writes only count the bytes of the encoded data.
+ * <p>
+ * Heap estimates assume a 64-bit JVM with compressed references (12 byte object headers, 4 byte references,
+ * 8 byte alignment) and compact strings. A tracker keeps counting, so use a new one for every read or write.
+ */
 public class NBTSizeTracker {
-    public static final NBTSizeTracker INFINITE = new NBTSizeTracker(0L) {
-        public void read(long bits) {
-        }
-    };
-    private final long max;
-    private long read;
+    public static final NBTSizeTracker INFINITE = new NBTSizeTracker(Long.MAX_VALUE, Long.MAX_VALUE, false);
+
+    private final long maxBytes;
+    private final long maxHeap;
+    // Lets INFINITE be shared between threads, as it never changes its counts
+    private final boolean tracking;
+    private long bytes;
+    private long heap;
 
+    /**
+     * Limits only the estimated heap, in bytes.
+     */
     public NBTSizeTracker(long max) {
-        this.max = max;
+        this(Long.MAX_VALUE, max, true);
+    }
+
+    public NBTSizeTracker(long maxBytes, long maxHeap) {
+        this(maxBytes, maxHeap, true);
+    }
+
+    private NBTSizeTracker(long maxBytes, long maxHeap, boolean tracking) {
+        this.maxBytes = maxBytes;
+        this.maxHeap = maxHeap;
+        this.tracking = tracking;
+    }
+
+    /**
+     * Tracks the reading of the given amount of bits(!) of heap.
+     */
+    public final void read(long bits) {
+        account(0, bits / 8L);
+    }
+
+    /**
+     * Tracks the given amount of bytes of NBT data and bytes of heap.
+     *
+     * @throws NBTSizeException If either limit is exceeded.
+     * @throws IllegalArgumentException If either amount is negative, which would otherwise lower the counts.
+     */
+    public final void account(long bytes, long heap) {
+        if ((bytes < 0) || (heap < 0)) throw new IllegalArgumentException("Negative size " + bytes + " bytes, " + heap + " heap");
+        if (!tracking) return;
+
+        this.bytes += bytes;
+        this.heap += heap;
+        if ((this.bytes > maxBytes) || (this.heap > maxHeap)) {
+            throw new NBTSizeException("NBT data is too big; " + this.bytes + " bytes (max allowed: " + maxBytes + ") taking about "
+                    + this.heap + " bytes of memory (max allowed: " + maxHeap + ")");
+        }
+    }
+
+    /**
+     * Tracks a string stored as modified UTF-8, along with the given amount of other bytes of NBT data and heap.
+     */
+    public final void accountString(String value, long bytes, long heap) {
+        if (!tracking) return;
+
+        int length = value.length();
+        long encoded = length;
+        boolean latin = true;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c == 0) || (c >= 0x80)) encoded += (c >= 0x800) ? 2 : 1;
+            if (c >= 0x100) latin = false;
+        }
+        account(bytes + 2 + encoded, heap + 24 + arrayHeap(latin ? 1 : 2, length));
+    }
+
+    /**
+     * Gets the bytes of NBT data tracked so far, always 0 for {@link #INFINITE}.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the estimated heap of the tags tracked so far, always 0 for {@link #INFINITE}.
+     */
+    public long getHeap() {
+        return heap;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxHeap() {
+        return maxHeap;
+    }
+
+    public static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Gets the estimated heap of an array with elements of the given size in bytes.
+     */
+    public static long arrayHeap(int elementSize, long length) {
+        return align(16 + elementSize * length);
     }
 
     /**
-     * Tracks the reading of the given amount of bits(!)
+     * Gets the estimated heap of a string, including its array.
      */
-    public void read(long bits) {
-        this.read += bits / 8L;
+    public static long stringHeap(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x100) return 24 + arrayHeap(2, length);
+        }
+        return 24 + arrayHeap(1, length);
+    }
+
+    /**
+     * Gets the estimated heap of the tag object of the given type, without the arrays, strings and
+     * children it refers to. Lists include their ArrayList and compounds their map object.
+     */
+    public static long tagHeap(byte id) {
+        return switch (id) {
+            case 4, 6 -> 24;
+            case 9 -> 32 + 24;
+            case 10 -> 24 + 40;
+            default -> 16;
+        };
+    }
+
+    /**
+     * Gets the estimated heap of the arrays of a compound with the given amount of tags, not counting its keys and values.
+     */
+    public static long compoundHeap(int size) {
+        if (size == 0) return 0;
+
+        int capacity = 4;
+        while (capacity < size) capacity <<= 1;
+        long heap = 2 * arrayHeap(4, capacity);
 
-        if (this.read > this.max) {
-            throw new RuntimeException("Tried to read NBT tag that was too big; tried to allocate: " + this.read + "bytes where max allowed: " + this.max);
+        // Larger compounds also have a hash index, see CompactTagMap
+        if (size > 8) {
+            int index = 16;
+            while (index < size * 2) index <<= 1;
+            heap += arrayHeap(4, index);
         }
+        return heap;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,21 @@
+package org.bsdevelopment.workload;
+
+/**
+ * The {@code IDeadlineWorkload} interface extends the {@link IWorkload} interface
+ * to represent a workload that must be completed within a certain number of ticks.
+ * <p>
+ * The deadline is only honoured when the {@link WorkloadRunnable} is running in
+ * {@link WorkloadRunnable.SchedulingMode#EARLIEST_DEADLINE_FIRST} mode, otherwise the
+ * workload is treated like any other {@link IWorkload}.
+ *
+ * @author brainsynder
+ */
+public interface IDeadlineWorkload extends IWorkload {
+    /**
+     * Gets the number of ticks (counted from the moment the workload is queued)
+     * this workload has to be computed in.
+     *
+     * @return The deadline in ticks, or a negative number if this workload has no deadline.
+     */
+    int getDeadlineTicks();
+}
@@ -1,7 +1,7 @@
 package org.bsdevelopment.workload;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * The {@code WorkloadRunnable} class implements the {@link Runnable} interface
@@ -11,14 +11,32 @@ import java.util.Deque;
  * @author brainsynder
  */
 public class WorkloadRunnable implements Runnable {
+    // The weight given to the newest sample when updating the measured cost per workload.
+    private static final double COST_SMOOTHING = 0.2;
+
     // The maximum allowed time in milliseconds per tick for workload execution.
     private double MAX_MILLIS_PER_TICK = 2.5;
 
     // The maximum allowed time in nanoseconds per tick based on MAX_MILLIS_PER_TICK.
-    private final int MAX_NANOS_PER_TICK = (int) (MAX_MILLIS_PER_TICK * 1E6);
+    private long MAX_NANOS_PER_TICK = (long) (MAX_MILLIS_PER_TICK * 1E6);
+
+    // A deque to store the workloads to be executed. The deadlines are kept so they stay the same when the mode changes.
+    private final Deque<DeadlineEntry> workloadDeque = new ArrayDeque<>();
+
+    // A queue ordered by deadline, used while running in EARLIEST_DEADLINE_FIRST mode.
+    private final PriorityQueue<DeadlineEntry> deadlineQueue = new PriorityQueue<>();
+
+    private SchedulingMode mode = SchedulingMode.FIFO;
+    private Consumer<IDeadlineWorkload> missHandler = null;
+
+    // The amount of times this runnable has been run, used as the clock for deadlines.
+    // A deadline of 0 ticks means the workload has to be computed the next time this runnable is run.
+    private long currentTick = 0;
+    private long sequence = 0;
+    private long missedDeadlines = 0;
 
-    // A deque to store the workloads to be executed.
-    private final Deque<IWorkload> workloadDeque = new ArrayDeque<>();
+    // The measured average time in nanoseconds a single workload takes to compute.
+    private double nanosPerWorkload = 0;
 
     /**
      * Adds a workload to the queue for execution.
@@ -26,7 +44,12 @@ public class WorkloadRunnable implements Runnable {
      * @param workload The workload to be added to the queue.
      */
     public void addWorkload(IWorkload workload) {
-        this.workloadDeque.add(workload);
+        DeadlineEntry entry = new DeadlineEntry(workload, getDeadline(workload), sequence++);
+        if (mode == SchedulingMode.EARLIEST_DEADLINE_FIRST) {
+            this.deadlineQueue.add(entry);
+            return;
+        }
+        this.workloadDeque.add(entry);
     }
 
     /**
@@ -36,6 +59,87 @@ public class WorkloadRunnable implements Runnable {
      */
     public void updateMillisPerTick(double millisPerTick) {
         MAX_MILLIS_PER_TICK = millisPerTick;
+        MAX_NANOS_PER_TICK = (long) (millisPerTick * 1E6);
+    }
+
+    /**
+     * Changes how queued workloads are ordered. Any workloads that are already queued
+     * are moved over to the new mode in the order they were added, and keep the deadline
+     * they were given when they were added.
+     *
+     * @param mode The scheduling mode to use.
+     */
+    public void setSchedulingMode(SchedulingMode mode) {
+        Objects.requireNonNull(mode, "Scheduling mode cannot be null");
+        if (this.mode == mode) return;
+
+        List<DeadlineEntry> pending = new ArrayList<>(workloadDeque);
+        pending.addAll(deadlineQueue);
+        workloadDeque.clear();
+        deadlineQueue.clear();
+
+        this.mode = mode;
+        if (mode == SchedulingMode.EARLIEST_DEADLINE_FIRST) {
+            deadlineQueue.addAll(pending);
+        } else {
+            pending.sort(Comparator.comparingLong(DeadlineEntry::sequence));
+            workloadDeque.addAll(pending);
+        }
+    }
+
+    public SchedulingMode getSchedulingMode() {
+        return mode;
+    }
+
+    /**
+     * Sets a handler that is called whenever a {@link IDeadlineWorkload} is computed after its deadline has passed.
+     *
+     * @param missHandler The handler to call, or {@code null} to remove it.
+     */
+    public void setMissHandler(Consumer<IDeadlineWorkload> missHandler) {
+        this.missHandler = missHandler;
+    }
+
+    /**
+     * Gets the amount of workloads that were computed after their deadline had passed.
+     *
+     * @return The amount of missed deadlines.
+     */
+    public long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    /**
+     * Gets the measured average time a single workload takes to compute.
+     *
+     * @return The average time in nanoseconds, or 0 if nothing has been measured yet.
+     */
+    public double getNanosPerWorkload() {
+        return nanosPerWorkload;
+    }
+
+    /**
+     * Projects which of the queued workloads will miss their deadline, based on the
+     * measured throughput and the current time limit per tick.
+     *
+     * @return The workloads that are expected to miss their deadline, in deadline order.
+     */
+    public List<IDeadlineWorkload> getProjectedMisses() {
+        List<IDeadlineWorkload> misses = new ArrayList<>();
+        if (deadlineQueue.isEmpty() || (MAX_NANOS_PER_TICK <= 0)) return misses;
+
+        DeadlineEntry[] entries = deadlineQueue.toArray(new DeadlineEntry[0]);
+        Arrays.sort(entries);
+
+        double elapsedNanos = 0;
+        for (DeadlineEntry entry : entries) {
+            elapsedNanos += nanosPerWorkload;
+            if (entry.deadline == Long.MAX_VALUE) break;
+
+            long finishTick = currentTick + (long) Math.ceil(elapsedNanos / MAX_NANOS_PER_TICK) - 1;
+            if (finishTick > entry.deadline) misses.add((IDeadlineWorkload) entry.workload);
+        }
+        return misses;
     }
 
     /**
@@ -43,26 +147,108 @@ public class WorkloadRunnable implements Runnable {
      */
     @Override
     public void run() {
+        if (mode == SchedulingMode.EARLIEST_DEADLINE_FIRST) {
+            runByDeadline();
+        } else {
+            runInOrder();
+        }
+        currentTick++;
+    }
+
+    private void runInOrder() {
         if (workloadDeque.isEmpty()) return;
 
         // Calculate the stop time based on the maximum time limit per tick.
-        long stopTime = System.nanoTime() + MAX_NANOS_PER_TICK;
+        long startTime = System.nanoTime();
+        long stopTime = startTime + MAX_NANOS_PER_TICK;
+        int computed = 0;
 
         // Retrieve the last workload in the queue.
-        IWorkload lastElement = this.workloadDeque.peekLast();
-        IWorkload nextLoad = null;
+        DeadlineEntry lastElement = this.workloadDeque.peekLast();
+        DeadlineEntry nextLoad = null;
 
         // Execute workloads until the time limit is reached or all workloads are processed.
         while ((System.nanoTime() <= stopTime)
                 && (!this.workloadDeque.isEmpty())
                 && (nextLoad != lastElement)) {
             nextLoad = this.workloadDeque.poll();
-            nextLoad.compute();
+            nextLoad.workload.compute();
+            computed++;
 
             // Check if the workload is an instance of IScheduledWorkload and should be rescheduled.
-            if (nextLoad instanceof IScheduledWorkload scheduledWorkload) {
+            if (nextLoad.workload instanceof IScheduledWorkload scheduledWorkload) {
                 if (scheduledWorkload.shouldBeRescheduled()) addWorkload(scheduledWorkload);
             }
         }
+
+        measure(startTime, computed);
+    }
+
+    private void runByDeadline() {
+        if (deadlineQueue.isEmpty()) return;
+
+        long startTime = System.nanoTime();
+        long stopTime = startTime + MAX_NANOS_PER_TICK;
+        int computed = 0;
+
+        // Rescheduled workloads are only queued again after this tick, so they can not run twice in one tick.
+        List<IWorkload> rescheduled = new ArrayList<>();
+
+        while ((System.nanoTime() <= stopTime) && (!this.deadlineQueue.isEmpty())) {
+            DeadlineEntry entry = this.deadlineQueue.poll();
+            entry.workload.compute();
+            computed++;
+
+            if (currentTick > entry.deadline) {
+                missedDeadlines++;
+                if (missHandler != null) missHandler.accept((IDeadlineWorkload) entry.workload);
+            }
+
+            if (entry.workload instanceof IScheduledWorkload scheduledWorkload) {
+                if (scheduledWorkload.shouldBeRescheduled()) rescheduled.add(scheduledWorkload);
+            }
+        }
+
+        rescheduled.forEach(this::addWorkload);
+        measure(startTime, computed);
+    }
+
+    private void measure(long startTime, int computed) {
+        if (computed == 0) return;
+
+        double sample = (double) (System.nanoTime() - startTime) / computed;
+        nanosPerWorkload = (nanosPerWorkload == 0) ? sample : (nanosPerWorkload + COST_SMOOTHING * (sample - nanosPerWorkload));
+    }
+
+    private long getDeadline(IWorkload workload) {
+        if (workload instanceof IDeadlineWorkload deadlineWorkload) {
+            int ticks = deadlineWorkload.getDeadlineTicks();
+            if (ticks >= 0) return currentTick + ticks;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * The order in which queued workloads are computed.
+     */
+    public enum SchedulingMode {
+        /**
+         * Workloads are computed in the order they were added.
+         */
+        FIFO,
+
+        /**
+         * Workloads with the nearest deadline are computed first, workloads without
+         * a deadline are computed in the order they were added once no deadlines remain.
+         */
+        EARLIEST_DEADLINE_FIRST
+    }
+
+    private record DeadlineEntry(IWorkload workload, long deadline, long sequence) implements Comparable<DeadlineEntry> {
+        @Override
+        public int compareTo(DeadlineEntry other) {
+            int compare = Long.compare(deadline, other.deadline);
+            return (compare != 0) ? compare : Long.compare(sequence, other.sequence);
+        }
     }
 }